@@ -0,0 +1,89 @@
+package org.easteregg.chaincode;
+
+import static org.easteregg.chaincode.global.TestConstants.TEST_CREATOR;
+import static shared.GlobalConfig.CcFunction.BATCH_SET_TEST_VARS;
+import static shared.GlobalConfig.CcFunction.SET_TEST_VAR;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.easteregg.chaincode.simulator.LedgerSimulator;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Test variable writes per second through SkeletonCC.invoke on a LedgerSimulator, when the client coalesces
+ * batchSize writes into one batchSetTestVars transaction, against one setTestVar transaction per write (batchSize 1).
+ * The "writes" counter is the number to compare; the primary score counts transactions. Only the chaincode's share of
+ * a transaction is measured here: the endorsement, ordering and commit that coalescing saves on a real network come
+ * on top of it for every transaction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Threads(4)
+public class CoalescedWriteBenchmark {
+
+    private static final int N_KEYS = 100_000;
+
+    @Param({"1", "10", "100", "1000"})
+    public int batchSize;
+
+    private final SkeletonCC skeletonCC = new SkeletonCC();
+    private LedgerSimulator ledger;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Writes {
+        public long writes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            writes = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        LogPolicy.configure("*=off", null);
+        ledger = new LedgerSimulator(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        LogPolicy.reset();
+    }
+
+    @Benchmark
+    public LedgerSimulator.SimulatedResult write(Writes writes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (batchSize == 1) {
+            writes.writes++;
+            return ledger.execute(skeletonCC::invoke, TEST_CREATOR, SET_TEST_VAR.getName(),
+                "train" + random.nextInt(N_KEYS), "v" + random.nextInt());
+        }
+        JSONObject values = new JSONObject();
+        for (int i = 0; i < batchSize; i++) {
+            values.put("train" + random.nextInt(N_KEYS), "v" + random.nextInt());
+        }
+        // Like the coalescer, a batch keeps only the last write of a key
+        writes.writes += values.length();
+        return ledger.execute(skeletonCC::invoke, TEST_CREATOR, BATCH_SET_TEST_VARS.getName(), values.toString());
+    }
+}
@@ -0,0 +1,56 @@
+package org.easteregg.chaincode;
+
+import static org.easteregg.chaincode.global.TestConstants.TEST_CREATOR;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Finding the identity of the creator of a transaction: parsing its certificate, and a hit in the identity cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreatorIdentityBenchmark {
+
+    private CreatorIdentityCache creatorIdentities;
+
+    @Setup
+    public void setup() {
+        LogPolicy.configure("*=off", null);
+        creatorIdentities = new CreatorIdentityCache(16);
+        creatorIdentities.get(TEST_CREATOR, CreatorIdentityBenchmark::parse);
+    }
+
+    @TearDown
+    public void tearDown() {
+        LogPolicy.reset();
+    }
+
+    @Benchmark
+    public String getCN() {
+        return Invocation.getCN(TEST_CREATOR);
+    }
+
+    @Benchmark
+    public CreatorIdentityCache.Identity cachedIdentity() {
+        return creatorIdentities.get(TEST_CREATOR, CreatorIdentityBenchmark::parse);
+    }
+
+    private static CreatorIdentityCache.Identity parse(byte[] creator) {
+        return CreatorIdentityCache.Identity.fromCommonName(Invocation.getCN(creator));
+    }
+}
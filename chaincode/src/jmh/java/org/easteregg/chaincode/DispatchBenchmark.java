@@ -0,0 +1,62 @@
+package org.easteregg.chaincode;
+
+import static org.easteregg.chaincode.global.TestConstants.TEST_CREATOR;
+import static shared.GlobalConfig.CcFunction.QUERY_TEST_VAR;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.hyperledger.fabric.shim.Chaincode.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Dispatching a call to its @Invokable method, the way Invocation used to (getDeclaredMethod, setAccessible and
+ * Method.invoke on every call) against the MethodHandle table of InvokableRegistry. Both call queryTestVar on the
+ * same Invocation, whose read is cached after the first call, so the difference between them is the dispatch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private final List<String> paramList = Collections.singletonList("trainName");
+    private Invocation invocation;
+
+    @Setup
+    public void setup() {
+        LogPolicy.configure("*=off", null);
+        invocation = new Invocation(new StubDouble(TEST_CREATOR).withState("trainName", "redDevil").toStub());
+    }
+
+    @TearDown
+    public void tearDown() {
+        LogPolicy.reset();
+    }
+
+    @Benchmark
+    public Response reflective() throws ReflectiveOperationException {
+        Method method = Invocation.class.getDeclaredMethod(QUERY_TEST_VAR.getName(), List.class);
+        method.setAccessible(true);
+        return (Response) method.invoke(invocation, paramList);
+    }
+
+    @Benchmark
+    public Response methodHandle() throws InvocationTargetException {
+        return Invocation.INVOKABLES.invoke(QUERY_TEST_VAR, invocation, paramList);
+    }
+}
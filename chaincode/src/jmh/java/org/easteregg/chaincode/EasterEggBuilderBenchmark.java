@@ -0,0 +1,79 @@
+package org.easteregg.chaincode;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import shared.GlobalConfig.EggEncoding;
+
+/*
+ * Rendering an egg, per frame size (horizontal x vertical radius) and color factors (colorFactor:colorPowerFactor).
+ * The geometry is computed once per EggMetrics and is left out of the measurement, as it is on the peers; see
+ * EggGeometryBenchmark for what it costs.
+ * The parallel benchmarks fork with a fixed common pool size, as the pool cannot be resized within a JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EasterEggBuilderBenchmark {
+
+    @Param({"30x22", "100x50", "400x200"})
+    public String frameSize;
+    @Param({"15:0.5", "32:1.0", "49:1.9"})
+    public String colorFactors;
+    @Param({"PLAIN", "RUN_LENGTH"})
+    public EggEncoding encoding;
+
+    private EasterEggBuilder eggBuilder;
+
+    @Setup
+    public void setup() {
+        String[] radii = frameSize.split("x");
+        int horizontalRadius = Integer.parseInt(radii[0]);
+        int verticalRadius = Integer.parseInt(radii[1]);
+        String[] factors = colorFactors.split(":");
+        EggMetrics eggMetrics = new EggMetrics(horizontalRadius, verticalRadius, horizontalRadius, verticalRadius,
+            Color.WHITE, Color.GREEN);
+        eggMetrics.getEggGeometry();
+        eggBuilder = new EasterEggBuilder(eggMetrics, Double.parseDouble(factors[0]), Double.parseDouble(factors[1]));
+    }
+
+    @Benchmark
+    public String buildSequential() {
+        return eggBuilder.build(encoding, false);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Djava.util.concurrent.ForkJoinPool.common.parallelism=2")
+    public String buildParallel2() {
+        return eggBuilder.build(encoding, true);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Djava.util.concurrent.ForkJoinPool.common.parallelism=4")
+    public String buildParallel4() {
+        return eggBuilder.build(encoding, true);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Djava.util.concurrent.ForkJoinPool.common.parallelism=8")
+    public String buildParallel8() {
+        return eggBuilder.build(encoding, true);
+    }
+
+    @Benchmark
+    public byte[] buildFrame() {
+        return eggBuilder.buildFrame();
+    }
+}
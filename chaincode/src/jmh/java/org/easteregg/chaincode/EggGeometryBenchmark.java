@@ -0,0 +1,71 @@
+package org.easteregg.chaincode;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import shared.GlobalConfig.EggEncoding;
+
+/*
+ * A sequential render including the egg geometry, per frame size (horizontal x vertical radius): sharedGeometry
+ * reuses the EggGeometry of one EggMetrics, as the peers do, while recomputedGeometry builds new EggMetrics for every
+ * egg, so every egg pays for its geometry again, as it did before the geometry was shared.
+ * geometryOnly is the cost of the geometry by itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EggGeometryBenchmark {
+
+    private static final double COLOR_FACTOR = 32;
+    private static final double COLOR_POWER_FACTOR = 1.0;
+
+    @Param({"30x22", "100x50", "400x200"})
+    public String frameSize;
+    @Param({"PLAIN", "RUN_LENGTH"})
+    public EggEncoding encoding;
+
+    private int horizontalRadius;
+    private int verticalRadius;
+    private EasterEggBuilder sharedBuilder;
+
+    @Setup
+    public void setup() {
+        String[] radii = frameSize.split("x");
+        horizontalRadius = Integer.parseInt(radii[0]);
+        verticalRadius = Integer.parseInt(radii[1]);
+        sharedBuilder = new EasterEggBuilder(newEggMetrics(), COLOR_FACTOR, COLOR_POWER_FACTOR);
+        sharedBuilder.getEggMetrics().getEggGeometry();
+    }
+
+    private EggMetrics newEggMetrics() {
+        return new EggMetrics(horizontalRadius, verticalRadius, horizontalRadius, verticalRadius, Color.WHITE,
+            Color.GREEN);
+    }
+
+    @Benchmark
+    public String sharedGeometry() {
+        return sharedBuilder.build(encoding, false);
+    }
+
+    @Benchmark
+    public String recomputedGeometry() {
+        return new EasterEggBuilder(newEggMetrics(), COLOR_FACTOR, COLOR_POWER_FACTOR).build(encoding, false);
+    }
+
+    @Benchmark
+    public EggGeometry geometryOnly() {
+        return new EggGeometry(newEggMetrics());
+    }
+}
@@ -0,0 +1,69 @@
+package org.easteregg.chaincode;
+
+import static org.easteregg.chaincode.global.TestConstants.TEST_CREATOR;
+
+import java.util.concurrent.TimeUnit;
+import org.hyperledger.fabric.shim.Chaincode.Response;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shared.GlobalConfig.CcFunction;
+
+/*
+ * A complete invocation against a stub double: setting up the Invocation, validating and dispatching the call,
+ * flushing the writes and sending the events. The creator is cached after the first invocation, and getEgg is
+ * served from the egg cache, so this measures the fixed cost around the functions themselves.
+ * logSpec shows what logging adds; see LogPolicy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvocationBenchmark {
+
+    @Param({"QUERY_TEST_VAR", "SET_TEST_VAR", "GET_EGG"})
+    public CcFunction function;
+    @Param({"*=off", "*=info"})
+    public String logSpec;
+
+    private ChaincodeStub chaincodeStub;
+
+    @Setup
+    public void setup() {
+        LogPolicy.configure(logSpec, null);
+        StubDouble stubDouble = new StubDouble(TEST_CREATOR).withState("trainName", "redDevil");
+        switch (function) {
+            case QUERY_TEST_VAR:
+                stubDouble.call(function.getName(), "trainName");
+                break;
+            case SET_TEST_VAR:
+                stubDouble.call(function.getName(), "trainName", "blueArrow");
+                break;
+            default:
+                stubDouble.call(function.getName());
+        }
+        chaincodeStub = stubDouble.toStub();
+    }
+
+    @TearDown
+    public void tearDown() {
+        LogPolicy.reset();
+    }
+
+    @Benchmark
+    public Response performInvocation() {
+        return new Invocation(chaincodeStub).performInvocation();
+    }
+}
@@ -0,0 +1,67 @@
+package org.easteregg.chaincode;
+
+import static org.easteregg.chaincode.global.TestConstants.TEST_CREATOR;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Building the JSON of the history of a key: the whole history at once, and the first page of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class LedgerServiceBenchmark {
+
+    private static final String KEY = "trainName";
+
+    @Param({"10", "1000", "100000"})
+    public int nModifications;
+
+    private Invocation invocation;
+
+    @Setup
+    public void setup() {
+        LogPolicy.configure("*=off", null);
+        List<KeyModification> modifications = new ArrayList<>(nModifications);
+        for (int i = 0; i < nModifications; i++) {
+            modifications.add(new MockKeyModification("tx" + i, "{\"speed\":" + i + ",\"name\":\"redDevil\"}",
+                Instant.ofEpochSecond(1_600_000_000L + i), i % 100 == 99));
+        }
+        invocation = new Invocation(new StubDouble(TEST_CREATOR).withHistory(KEY, modifications).toStub());
+    }
+
+    @TearDown
+    public void tearDown() {
+        LogPolicy.reset();
+    }
+
+    @Benchmark
+    public String queryHistory() {
+        return new LedgerService(invocation).queryHistoryWrapper(KEY);
+    }
+
+    @Benchmark
+    public String queryHistoryPage() {
+        return new LedgerService(invocation).queryHistoryPageWrapper(KEY, LedgerService.MAX_HISTORY_PAGE_SIZE, "",
+            null, null);
+    }
+}
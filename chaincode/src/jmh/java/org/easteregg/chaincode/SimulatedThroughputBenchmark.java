@@ -0,0 +1,91 @@
+package org.easteregg.chaincode;
+
+import static org.easteregg.chaincode.global.TestConstants.TEST_CREATOR;
+import static shared.GlobalConfig.CcFunction.QUERY_TEST_VAR;
+import static shared.GlobalConfig.CcFunction.SET_TEST_VAR;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.easteregg.chaincode.simulator.LedgerSimulator;
+import org.easteregg.chaincode.simulator.LedgerSimulator.ValidationCode;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Transactions per second through SkeletonCC.invoke on a LedgerSimulator, from several threads at once, with a mix
+ * of queryTestVar and setTestVar on nKeys keys. Fewer keys mean more MVCC conflicts; the valid and conflicting
+ * transactions per second are reported next to the total.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Threads(4)
+public class SimulatedThroughputBenchmark {
+
+    @Param({"1", "16", "1024"})
+    public int nKeys;
+    @Param({"0.5", "0.9"})
+    public double readShare;
+
+    private final SkeletonCC skeletonCC = new SkeletonCC();
+    private LedgerSimulator ledger;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Outcomes {
+        public long valid;
+        public long conflicts;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            valid = 0;
+            conflicts = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        LogPolicy.configure("*=off", null);
+        ledger = new LedgerSimulator(0);
+        // Queries of missing keys fail and log their stack trace, which would drown out everything else
+        for (int i = 0; i < nKeys; i++) {
+            ledger.execute(skeletonCC::invoke, TEST_CREATOR, SET_TEST_VAR.getName(), "train" + i, "v");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        LogPolicy.reset();
+    }
+
+    @Benchmark
+    public ValidationCode invoke(Outcomes outcomes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = "train" + random.nextInt(nKeys);
+        LedgerSimulator.SimulatedResult result = random.nextDouble() < readShare
+            ? ledger.execute(skeletonCC::invoke, TEST_CREATOR, QUERY_TEST_VAR.getName(), key)
+            : ledger.execute(skeletonCC::invoke, TEST_CREATOR, SET_TEST_VAR.getName(), key, "v" + random.nextInt());
+        if (result.getValidationCode() == ValidationCode.VALID) {
+            outcomes.valid++;
+        } else {
+            outcomes.conflicts++;
+        }
+        return result.getValidationCode();
+    }
+}
@@ -0,0 +1,77 @@
+package org.easteregg.chaincode;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+
+/*
+ * Minimal ChaincodeStub for the benchmarks, without the per-call bookkeeping of a Mockito mock.
+ * Only the calls made by Invocation and LedgerService are answered; anything else throws.
+ */
+final class StubDouble {
+
+    private final Map<String, String> state = new HashMap<>();
+    private final Map<String, List<KeyModification>> history = new HashMap<>();
+    private final byte[] creator;
+    private String function;
+    private List<String> parameters;
+
+    StubDouble(byte[] creator) {
+        this.creator = creator;
+    }
+
+    StubDouble call(String function, String... parameters) {
+        this.function = function;
+        this.parameters = Arrays.asList(parameters);
+        return this;
+    }
+
+    StubDouble withState(String key, String value) {
+        state.put(key, value);
+        return this;
+    }
+
+    StubDouble withHistory(String key, List<KeyModification> modifications) {
+        history.put(key, modifications);
+        return this;
+    }
+
+    ChaincodeStub toStub() {
+        return (ChaincodeStub) Proxy.newProxyInstance(ChaincodeStub.class.getClassLoader(),
+            new Class<?>[]{ChaincodeStub.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getFunction":
+                        return function;
+                    case "getParameters":
+                        return parameters;
+                    case "getCreator":
+                        return creator;
+                    case "getTxId":
+                        return "benchmarkTx";
+                    case "getTxTimestamp":
+                        return Instant.EPOCH;
+                    case "getStringState":
+                        return state.get((String) args[0]);
+                    case "getState":
+                        String value = state.get((String) args[0]);
+                        return value == null ? new byte[0] : value.getBytes(UTF_8);
+                    case "putStringState":
+                    case "putState":
+                    case "setEvent":
+                        return null;
+                    case "getHistoryForKey":
+                        return new MockQueryResultsIterator(
+                            history.get((String) args[0]).toArray(new KeyModification[0]));
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
@@ -0,0 +1,182 @@
+package org.easteregg.chaincode;
+
+import static org.easteregg.chaincode.LogPolicy.Category.METRICS;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+import org.slf4j.event.Level;
+import shared.GlobalConfig.CcFunction;
+import shared.LatencyHistogram;
+
+/*
+ * Counters and latency histograms of this chaincode process: per CcFunction the calls, failures, argument and
+ * response sizes and the duration of the whole invocation, and per Operation the time spent in the stub and in the
+ * expensive steps of an invocation. Everything is recorded without locks, from any number of invocations at once.
+ *
+ * The metrics are returned by the getMetrics function and written to the log every EASTEREGG_METRICS_DUMP_SECONDS
+ * seconds (default 60, 0 to disable) while the METRICS log category is at info.
+ */
+@Slf4j
+final class ChaincodeMetrics {
+
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    enum Operation {
+        // Stub calls made by LedgerService; the history and range queries include reading their results
+        GET_STATE("getState"),
+        PUT_STATE("putState"),
+        GET_HISTORY("getHistoryForKey"),
+        GET_STATE_BY_RANGE("getStateByRange"),
+        // Parsing the certificate of a creator that is not in the CreatorIdentityCache
+        PARSE_CREATOR("parseCreator"),
+        // Rendering an egg that is not in the EggCache
+        RENDER_EGG("renderEgg");
+
+        private final String name;
+    }
+
+    static final String DUMP_INTERVAL_ENV = "EASTEREGG_METRICS_DUMP_SECONDS";
+    static final long DEFAULT_DUMP_INTERVAL_SECONDS = 60;
+
+    private static final Map<CcFunction, FunctionStats> FUNCTIONS = new EnumMap<>(CcFunction.class);
+    private static final Map<Operation, LatencyHistogram> OPERATIONS = new EnumMap<>(Operation.class);
+    private static final LongAdder UNKNOWN_FUNCTION_CALLS = new LongAdder();
+    private static volatile long sinceMillis = System.currentTimeMillis();
+
+    static {
+        for (CcFunction function : CcFunction.values()) {
+            FUNCTIONS.put(function, new FunctionStats());
+        }
+        for (Operation operation : Operation.values()) {
+            OPERATIONS.put(operation, new LatencyHistogram());
+        }
+    }
+
+    private ChaincodeMetrics() {
+    }
+
+    private static class FunctionStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+        final LongAdder argChars = new LongAdder();
+        final LongAdder responseSize = new LongAdder();
+    }
+
+    // function is null for names that are not a CcFunction; responseSize counts the message and payload together
+    static void recordInvocation(CcFunction function, long startNanos, long argChars, long responseSize,
+        boolean failed) {
+        long nanos = System.nanoTime() - startNanos;
+        if (function == null) {
+            UNKNOWN_FUNCTION_CALLS.increment();
+            return;
+        }
+        FunctionStats stats = FUNCTIONS.get(function);
+        stats.latency.record(nanos);
+        stats.argChars.add(argChars);
+        stats.responseSize.add(responseSize);
+        if (failed) {
+            stats.failures.increment();
+        }
+    }
+
+    static void recordOperation(Operation operation, long startNanos) {
+        OPERATIONS.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    static <T> T timeOperation(Operation operation, Supplier<T> supplier) {
+        long startNanos = System.nanoTime();
+        T result = supplier.get();
+        recordOperation(operation, startNanos);
+        return result;
+    }
+
+    // Functions and operations that were never called are left out
+    static JSONObject toJson() {
+        JSONObject functions = new JSONObject();
+        FUNCTIONS.forEach((function, stats) -> {
+            long calls = stats.latency.getCount();
+            if (calls > 0) {
+                functions.put(function.getName(), new JSONObject()
+                    .put("calls", calls)
+                    .put("failures", stats.failures.sum())
+                    .put("argChars", stats.argChars.sum())
+                    .put("responseSize", stats.responseSize.sum())
+                    .put("latency", latencyToJson(stats.latency)));
+            }
+        });
+        JSONObject operations = new JSONObject();
+        OPERATIONS.forEach((operation, latency) -> {
+            if (latency.getCount() > 0) {
+                operations.put(operation.getName(), latencyToJson(latency));
+            }
+        });
+        return new JSONObject()
+            .put("sinceMillis", sinceMillis)
+            .put("functions", functions)
+            .put("unknownFunctionCalls", UNKNOWN_FUNCTION_CALLS.sum())
+            .put("operations", operations)
+            .put("cachedReads", LedgerService.getCachedReads())
+            .put("elidedWrites", LedgerService.getElidedWrites())
+            .put("eggCache", Invocation.getEggCache().toJson());
+    }
+
+    private static JSONObject latencyToJson(LatencyHistogram latency) {
+        long count = latency.getCount();
+        return new JSONObject()
+            .put("count", count)
+            .put("meanNanos", count == 0 ? 0 : latency.getTotalNanos() / count)
+            .put("p50Nanos", latency.getPercentileNanos(0.5))
+            .put("p99Nanos", latency.getPercentileNanos(0.99))
+            .put("p999Nanos", latency.getPercentileNanos(0.999))
+            .put("maxNanos", latency.getMaxNanos());
+    }
+
+    static void reset() {
+        FUNCTIONS.values().forEach(stats -> {
+            stats.latency.reset();
+            stats.failures.reset();
+            stats.argChars.reset();
+            stats.responseSize.reset();
+        });
+        OPERATIONS.values().forEach(LatencyHistogram::reset);
+        UNKNOWN_FUNCTION_CALLS.reset();
+        sinceMillis = System.currentTimeMillis();
+    }
+
+    // Called once when the chaincode process starts; the dump thread does not keep the process alive
+    static void startPeriodicDump() {
+        long intervalSeconds = Optional.ofNullable(System.getenv(DUMP_INTERVAL_ENV)).map(Long::valueOf)
+            .orElse(DEFAULT_DUMP_INTERVAL_SECONDS);
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chaincode-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(ChaincodeMetrics::dump, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // An exception would cancel all later dumps, so it is only logged
+    private static void dump() {
+        try {
+            if (LogPolicy.isEnabled(METRICS, Level.INFO)) {
+                log.info("Metrics: {}", toJson());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not dump the metrics: {}", e.toString());
+        }
+    }
+}
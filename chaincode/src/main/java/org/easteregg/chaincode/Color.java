@@ -25,22 +25,44 @@ package org.easteregg.chaincode;
  * https://en.wikipedia.org/wiki/ANSI_escape_code
  */
 public enum Color {
-    BLACK("\033[0;100m \u001b[0m"),
-    RED("\033[0;101m \u001b[0m"),
-    GREEN("\033[0;102m \u001b[0m"),
-    YELLOW("\033[0;103m \u001b[0m"),
-    BLUE("\033[0;104m \u001b[0m"),
-    PURPLE("\033[0;105m \u001b[0m"),
-    CYAN("\033[0;106m \u001b[0m"),
-    WHITE("\033[0;107m \u001b[0m");
+    BLACK(100),
+    RED(101),
+    GREEN(102),
+    YELLOW(103),
+    BLUE(104),
+    PURPLE(105),
+    CYAN(106),
+    WHITE(107);
 
+    public static final String RESET = "\u001b[0m";
+
+    private final int backgroundCode;
+    private final String escapeCode;
     private final String color;
 
-    Color(final String color) {
-        this.color = color;
+    Color(final int backgroundCode) {
+        this.backgroundCode = backgroundCode;
+        this.escapeCode = "\033[0;" + backgroundCode + "m";
+        this.color = escapeCode + " " + RESET;
     }
 
+    // A single colored cell, reset afterwards
     public String getColor() {
         return color;
     }
-}
\ No newline at end of file
+
+    // Only the code that switches to this background color, for writing runs of cells
+    public String getEscapeCode() {
+        return escapeCode;
+    }
+
+    // The number in the escape code, as stored in the palette of a shared.EggFrame
+    public int getBackgroundCode() {
+        return backgroundCode;
+    }
+
+    // The number in the escape code that sets this color as the foreground, for drawing half blocks
+    public int getForegroundCode() {
+        return backgroundCode - 10;
+    }
+}
@@ -0,0 +1,239 @@
+package org.easteregg.chaincode;
+
+import static org.easteregg.chaincode.LogPolicy.Category.EVENTS;
+import static shared.GlobalConfig.EventEncoding;
+
+import java.util.Arrays;
+import java.util.Optional;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.event.Level;
+import shared.CompositeEvent;
+
+/*
+ * Writes the composite event of a transaction straight into a reusable byte buffer, one queued event at a time,
+ * instead of building a JSON tree first and serializing it at the end. Both layouts are described on CompositeEvent,
+ * which the clients use to read them back.
+ *
+ * A transaction can only set one event, so an event that does not fit within the size cap cannot be moved to a
+ * separate one. Instead, it is dropped together with every event queued after it: listeners always receive the
+ * events in the order they were queued, and learn how many are missing at the end.
+ */
+@Slf4j
+final class CompositeEventWriter {
+
+    static final int DEFAULT_MAX_EVENT_BYTES = 64 * 1024;
+    static final String MAX_EVENT_BYTES_ENV = "EASTEREGG_EVENT_MAX_BYTES";
+    static final String EVENT_ENCODING_ENV = "EASTEREGG_EVENT_ENCODING";
+    // Room kept free for the bytes written after the last event
+    private static final int TRAILER_BYTES = 32;
+    private static final int BINARY_EVENT_COUNT_OFFSET = -8;
+
+    private static final ThreadLocal<CompositeEventWriter> WRITERS = ThreadLocal.withInitial(() ->
+        new CompositeEventWriter(
+            EventEncoding.fromString(Optional.ofNullable(System.getenv(EVENT_ENCODING_ENV))
+                .orElse(EventEncoding.JSON.getName())),
+            Optional.ofNullable(System.getenv(MAX_EVENT_BYTES_ENV)).map(Integer::valueOf)
+                .orElse(DEFAULT_MAX_EVENT_BYTES)));
+
+    @Getter
+    private final EventEncoding encoding;
+    private final int maxEventBytes;
+    private byte[] buffer = new byte[1024];
+    private int size;
+    private int headerSize;
+    @Getter
+    private int nEvents;
+    @Getter
+    private int nDroppedEvents;
+
+    CompositeEventWriter(EventEncoding encoding, int maxEventBytes) {
+        if (maxEventBytes < 256) {
+            throw new IllegalArgumentException("The event size cap must be at least 256 bytes, got " + maxEventBytes);
+        }
+        this.encoding = encoding;
+        this.maxEventBytes = maxEventBytes;
+    }
+
+    // The writer of the current thread, cleared and holding the header of the given transaction
+    static CompositeEventWriter forTransaction(String txId, long txTimestamp) {
+        return WRITERS.get().begin(txId, txTimestamp);
+    }
+
+    CompositeEventWriter begin(String txId, long txTimestamp) {
+        size = 0;
+        nEvents = 0;
+        nDroppedEvents = 0;
+        if (encoding == EventEncoding.JSON) {
+            writeAscii("{\"txId\":");
+            writeJsonString(txId);
+            writeAscii(",\"txTimestamp\":");
+            writeAscii(Long.toString(txTimestamp));
+            writeAscii(",\"events\":[");
+        } else {
+            writeByte(CompositeEvent.BINARY_VERSION);
+            int lengthOffset = reserve(2);
+            putShort(lengthOffset, writeUtf8(txId));
+            writeLong(txTimestamp);
+            reserve(8);
+        }
+        headerSize = size;
+        if (headerSize + TRAILER_BYTES > maxEventBytes) {
+            throw new IllegalArgumentException("Transaction id " + txId + " does not fit in a composite event");
+        }
+        return this;
+    }
+
+    // contentsJson must be a complete JSON value; it is copied into the event as is
+    void append(String eventName, String contentsJson) {
+        // Every char takes at least one byte, so events that are too long in chars are dropped without writing them
+        if (nDroppedEvents > 0 || size + eventName.length() + contentsJson.length() + TRAILER_BYTES > maxEventBytes) {
+            drop(eventName);
+            return;
+        }
+        int eventStart = size;
+        if (encoding == EventEncoding.JSON) {
+            writeAscii(nEvents == 0 ? "{" : ",{");
+            writeJsonString(eventName);
+            writeByte(':');
+            writeUtf8(contentsJson);
+            writeByte('}');
+        } else {
+            int nameLengthOffset = reserve(2);
+            putShort(nameLengthOffset, writeUtf8(eventName));
+            int contentsLengthOffset = reserve(4);
+            putInt(contentsLengthOffset, writeUtf8(contentsJson));
+        }
+        if (size + TRAILER_BYTES > maxEventBytes) {
+            size = eventStart;
+            drop(eventName);
+        } else {
+            nEvents++;
+        }
+    }
+
+    // Only the event that overflows the cap is logged; Invocation logs how many were dropped in total
+    private void drop(String eventName) {
+        if (nDroppedEvents++ == 0 && LogPolicy.isEnabled(EVENTS, Level.WARN)) {
+            log.warn("Event {} does not fit in the {} bytes left of the composite event, dropping it and every later "
+                + "event", eventName, maxEventBytes - size - TRAILER_BYTES);
+        }
+    }
+
+    boolean isEmpty() {
+        return nEvents == 0 && nDroppedEvents == 0;
+    }
+
+    // Completes the event and returns a copy of it; the buffer is reused by the next transaction on this thread
+    byte[] finish() {
+        if (encoding == EventEncoding.JSON) {
+            writeByte(']');
+            if (nDroppedEvents > 0) {
+                writeAscii(",\"droppedEvents\":");
+                writeAscii(Integer.toString(nDroppedEvents));
+            }
+            writeByte('}');
+        } else {
+            putInt(headerSize + BINARY_EVENT_COUNT_OFFSET, nEvents);
+            putInt(headerSize + BINARY_EVENT_COUNT_OFFSET + 4, nDroppedEvents);
+        }
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private void writeJsonString(String value) {
+        writeByte('"');
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeByte('\\');
+                writeByte(c);
+                i++;
+            } else if (c < 0x20) {
+                writeAscii(String.format("\\u%04x", (int) c));
+                i++;
+            } else {
+                i += writeCodePoint(value, i);
+            }
+        }
+        writeByte('"');
+    }
+
+    // Returns the number of bytes written
+    private int writeUtf8(String value) {
+        int start = size;
+        int i = 0;
+        while (i < value.length()) {
+            i += writeCodePoint(value, i);
+        }
+        return size - start;
+    }
+
+    // Writes the code point at index i and returns the number of chars it took; an unpaired surrogate becomes '?',
+    // as it does in String.getBytes
+    private int writeCodePoint(String value, int i) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            writeByte(0xC0 | (c >> 6));
+            writeByte(0x80 | (c & 0x3F));
+        } else if (!Character.isSurrogate(c)) {
+            writeByte(0xE0 | (c >> 12));
+            writeByte(0x80 | ((c >> 6) & 0x3F));
+            writeByte(0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+            writeByte(0xF0 | (codePoint >> 18));
+            writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+            writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+            writeByte(0x80 | (codePoint & 0x3F));
+            return 2;
+        } else {
+            writeByte('?');
+        }
+        return 1;
+    }
+
+    private void writeAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            writeByte(value.charAt(i));
+        }
+    }
+
+    private void writeLong(long value) {
+        int offset = reserve(8);
+        putInt(offset, (int) (value >>> 32));
+        putInt(offset + 4, (int) value);
+    }
+
+    private void writeByte(int value) {
+        if (size == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    private int reserve(int nBytes) {
+        int offset = size;
+        for (int i = 0; i < nBytes; i++) {
+            writeByte(0);
+        }
+        return offset;
+    }
+
+    private void putShort(int offset, int value) {
+        if (value > 0xFFFF) {
+            throw new IllegalArgumentException("String of " + value + " bytes does not fit in a binary event");
+        }
+        buffer[offset] = (byte) (value >>> 8);
+        buffer[offset + 1] = (byte) value;
+    }
+
+    private void putInt(int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            buffer[offset + i] = (byte) (value >>> (24 - 8 * i));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.easteregg.chaincode;
+
+import static org.easteregg.chaincode.LogPolicy.Category.CACHE;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.event.Level;
+
+/*
+ * Least-recently-used cache from the serialized creator of a transaction to its parsed identity.
+ * Parsing the creator's X.509 certificate is the most expensive part of setting up an invocation,
+ * while a network only has a handful of distinct creators.
+ */
+@Slf4j
+class CreatorIdentityCache {
+
+    private final Map<ByteBuffer, Identity> identities;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+
+    CreatorIdentityCache(int maxEntries) {
+        identities = new LinkedHashMap<ByteBuffer, Identity>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Identity> eldest) {
+                boolean evict = size() > maxEntries;
+                if (evict) {
+                    evictions.increment();
+                }
+                return evict;
+            }
+        };
+    }
+
+    // Parsing happens outside the lock; concurrent misses for one creator parse it more than once, with the same result
+    Identity get(byte[] creator, Function<byte[], Identity> parser) {
+        ByteBuffer key = ByteBuffer.wrap(creator);
+        Identity identity;
+        synchronized (this) {
+            identity = identities.get(key);
+        }
+        if (identity != null) {
+            hits.increment();
+            if (LogPolicy.isEnabled(CACHE, Level.DEBUG)) {
+                log.debug("CN = {} (cached, ~{} us of parsing saved so far)", identity.getCommonName(),
+                    getSavedParseNanos() / 1000);
+            }
+            return identity;
+        }
+        long startTime = System.nanoTime();
+        identity = parser.apply(creator);
+        parseNanos.add(System.nanoTime() - startTime);
+        misses.increment();
+        synchronized (this) {
+            identities.put(ByteBuffer.wrap(creator.clone()), identity);
+        }
+        return identity;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    // Estimated from the average time the misses took to parse
+    long getSavedParseNanos() {
+        long nMisses = misses.sum();
+        return nMisses == 0 ? 0 : hits.sum() * (parseNanos.sum() / nMisses);
+    }
+
+    // The creator's common name, and the egg parameters derived from it
+    @Value
+    static class Identity {
+        String commonName;
+        double colorFactor;
+        double colorPowerFactor;
+
+        static Identity fromCommonName(String commonName) {
+            int hashCode = commonName.hashCode();
+            return new Identity(commonName, 15 + (hashCode % 35), 0.2 + (hashCode % 1.8));
+        }
+    }
+}
@@ -1,17 +1,36 @@
 package org.easteregg.chaincode;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import shared.EggFrame;
+import shared.GlobalConfig.EggEncoding;
 
 /**
- * Draws an easter egg through a modified ellipse equation: (x−a)²/rx² + (y−b)²/ry² = 1
+ * Draws an easter egg by coloring the shape described by {@link EggGeometry}.
  * <p>
- * Modified ellipse equation for vertical egg: (x−centerXPoint)²*1000/(horizontalRadius² * (1+(0.025 * y))) +
- * (y−centerYPoint)²*1000/verticalRadius² = 1000 x, y -> coordinates of a single point on ellipse
+ * Only the color mapping depends on the color factors; the shape itself is shared by every egg with the same
+ * {@link EggMetrics}.
+ * <p>
+ * Large frames are rendered in stripes of rows on the common ForkJoin pool. The stripes are concatenated in order,
+ * so the result is identical to a single-threaded render.
  */
+@Getter
 @RequiredArgsConstructor
 public class EasterEggBuilder {
 
-    private static final float EGG_EQUATION_SCALE_FACTOR = 1000;
+    // Below this many cells, splitting the work costs more than it saves
+    static final int PARALLEL_THRESHOLD_CELLS = 20_000;
+    private static final int STRIPES_PER_THREAD = 4;
+    private static final Color[] ALL_COLORS = Color.values();
+    private static final char UPPER_HALF_BLOCK = '\u2580';
+    private static final char LOWER_HALF_BLOCK = '\u2584';
+    // A pixel of an EggFrame is the ordinal of its Color
+    private static final int[] FRAME_PALETTE = Arrays.stream(ALL_COLORS).mapToInt(Color::getBackgroundCode).toArray();
     // 15 - 50
 //    private static final double EGG_COLOR_FACTOR = 15;
     // 0.2 - 2
@@ -24,47 +43,157 @@ public class EasterEggBuilder {
 
 
     public String build() {
-        StringBuilder builder = new StringBuilder();
-        for (int yCoordinate = 0; yCoordinate <= eggMetrics.getFrameHeight(); yCoordinate++) {
-            for (int xCoordinate = 0; xCoordinate <= eggMetrics.getFrameWidth(); xCoordinate++) {
-                builder.append(getEggPoint(yCoordinate, xCoordinate));
+        return build(EggEncoding.PLAIN);
+    }
+
+    public String build(EggEncoding encoding) {
+        boolean parallel = countCells() >= PARALLEL_THRESHOLD_CELLS && ForkJoinPool.getCommonPoolParallelism() > 1;
+        return build(encoding, parallel);
+    }
+
+    String build(EggEncoding encoding, boolean parallel) {
+        EggGeometry eggGeometry = eggMetrics.getEggGeometry();
+        int nRows = eggMetrics.getFrameHeight() + 1;
+        if (!parallel) {
+            return appendRows(new StringBuilder(estimateLength(encoding)), encoding, eggGeometry, 0, nRows).toString();
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int nStripes = Math.min(nRows, pool.getParallelism() * STRIPES_PER_THREAD);
+        List<ForkJoinTask<StringBuilder>> stripes = new ArrayList<>(nStripes);
+        for (int stripe = 0; stripe < nStripes; stripe++) {
+            int firstRow = stripe * nRows / nStripes;
+            int endRow = (stripe + 1) * nRows / nStripes;
+            int stripeLength = estimateLength(encoding) / nRows * (endRow - firstRow);
+            stripes.add(pool.submit(
+                () -> appendRows(new StringBuilder(stripeLength), encoding, eggGeometry, firstRow, endRow)));
+        }
+        StringBuilder builder = new StringBuilder(estimateLength(encoding));
+        for (ForkJoinTask<StringBuilder> stripe : stripes) {
+            builder.append(stripe.join());
+        }
+        return builder.toString();
+    }
+
+    private StringBuilder appendRows(StringBuilder builder, EggEncoding encoding, EggGeometry eggGeometry,
+        int firstRow, int endRow) {
+        for (int yCoordinate = firstRow; yCoordinate < endRow; yCoordinate++) {
+            if (encoding == EggEncoding.RUN_LENGTH) {
+                appendRunLengthRow(builder, eggGeometry, yCoordinate);
+            } else if (encoding == EggEncoding.HALF_BLOCK) {
+                appendHalfBlockRow(builder, yCoordinate);
+            } else {
+                appendPlainRow(builder, eggGeometry, yCoordinate);
             }
             builder.append("\n");
         }
-        return builder.toString();
+        return builder;
     }
 
-    private Color getColor(double eggRatio) {
-        Color[] allColors = Color.values();
-        double eggRatioPowered = Math.pow(eggRatio, colorPowerFactor);
-        int index = (int) (eggRatioPowered * allColors.length * colorFactor) % allColors.length;
-        return allColors[index];
+    // The egg as a palette-indexed binary frame, see shared.EggFrame
+    public byte[] buildFrame() {
+        EggGeometry eggGeometry = eggMetrics.getEggGeometry();
+        int width = eggMetrics.getFrameWidth() + 1;
+        int height = eggMetrics.getFrameHeight() + 1;
+        byte[] pixels = new byte[width * height];
+        for (int yCoordinate = 0; yCoordinate < height; yCoordinate++) {
+            for (int xCoordinate = 0; xCoordinate < width; xCoordinate++) {
+                pixels[yCoordinate * width + xCoordinate] =
+                    (byte) getEggPoint(eggGeometry, yCoordinate, xCoordinate).ordinal();
+            }
+        }
+        int backgroundIndex = eggMetrics.getBackgroundColor().ordinal();
+        return new EggFrame(width, height, FRAME_PALETTE, backgroundIndex, pixels).encode();
     }
 
-    private String getEggPoint(int yCoordinate, int xCoordinate) {
-        double eggRatio = getEggRatio(xCoordinate, yCoordinate);
-        return eggRatio < 1.0 ? getColor(eggRatio).getColor() : eggMetrics.getBackgroundColor();
+    private void appendPlainRow(StringBuilder builder, EggGeometry eggGeometry, int yCoordinate) {
+        for (int xCoordinate = 0; xCoordinate <= eggMetrics.getFrameWidth(); xCoordinate++) {
+            builder.append(getEggPoint(eggGeometry, yCoordinate, xCoordinate).getColor());
+        }
     }
 
-    private double getEggRatio(int xCoordinate, int yCoordinate) {
-        double numeratorSummand1 =
-            (calculateSquareOfDistance(eggMetrics.getCenterXPoint(), xCoordinate) * EGG_EQUATION_SCALE_FACTOR) / (
-                calculateSquare(eggMetrics.getHorizontalRadius()) * factorToChangeToEggShape(yCoordinate));
-        double numeratorSummand2 =
-            (calculateSquareOfDistance(eggMetrics.getCenterYPoint(), yCoordinate) * EGG_EQUATION_SCALE_FACTOR)
-                / calculateSquare(eggMetrics.getVerticalRadius());
-        return (numeratorSummand1 + numeratorSummand2) / EGG_EQUATION_SCALE_FACTOR;
+    // Only switches color where it changes, so a row costs one escape code per run instead of two per cell
+    private void appendRunLengthRow(StringBuilder builder, EggGeometry eggGeometry, int yCoordinate) {
+        Color currentColor = null;
+        for (int xCoordinate = 0; xCoordinate <= eggMetrics.getFrameWidth(); xCoordinate++) {
+            Color color = getEggPoint(eggGeometry, yCoordinate, xCoordinate);
+            if (color != currentColor) {
+                builder.append(color.getEscapeCode());
+                currentColor = color;
+            }
+            builder.append(' ');
+        }
+        builder.append(Color.RESET);
+    }
+
+    // Every cell shows two rows of the egg at double vertical resolution, using the foreground color for one half of
+    // the cell and the background color for the other. A cell whose halves have the same color is a space, and of the
+    // upper and lower half block the one that needs the fewest color changes is used.
+    private void appendHalfBlockRow(StringBuilder builder, int yCoordinate) {
+        EggMetrics halfBlockMetrics = eggMetrics.getHalfBlockMetrics();
+        EggGeometry halfBlockGeometry = halfBlockMetrics.getEggGeometry();
+        int upperRow = 2 * yCoordinate;
+        boolean hasLowerRow = upperRow + 1 <= halfBlockMetrics.getFrameHeight();
+        Color foreground = null;
+        Color background = null;
+        for (int xCoordinate = 0; xCoordinate <= eggMetrics.getFrameWidth(); xCoordinate++) {
+            Color upper = getEggPoint(halfBlockGeometry, upperRow, xCoordinate);
+            Color lower = hasLowerRow ? getEggPoint(halfBlockGeometry, upperRow + 1, xCoordinate)
+                : eggMetrics.getBackgroundColor();
+            if (upper == lower) {
+                // A space only shows the background, so the foreground may stay as it is
+                appendColors(builder, null, upper == background ? null : upper);
+                background = upper;
+                builder.append(' ');
+            } else if (upper == background || lower == foreground) {
+                appendColors(builder, lower == foreground ? null : lower, upper == background ? null : upper);
+                foreground = lower;
+                background = upper;
+                builder.append(LOWER_HALF_BLOCK);
+            } else {
+                appendColors(builder, upper == foreground ? null : upper, lower == background ? null : lower);
+                foreground = upper;
+                background = lower;
+                builder.append(UPPER_HALF_BLOCK);
+            }
+        }
+        builder.append(Color.RESET);
+    }
+
+    // Switches to the given colors in a single escape code; null leaves that color as it is
+    private static void appendColors(StringBuilder builder, Color foreground, Color background) {
+        if (foreground == null && background == null) {
+            return;
+        }
+        builder.append("\u001b[");
+        if (foreground != null) {
+            builder.append(foreground.getForegroundCode());
+        }
+        if (foreground != null && background != null) {
+            builder.append(';');
+        }
+        if (background != null) {
+            builder.append(background.getBackgroundCode());
+        }
+        builder.append('m');
     }
 
-    private static int calculateSquareOfDistance(int centerPoint, int coordinate) {
-        return calculateSquare(coordinate - centerPoint);
+    private int countCells() {
+        return (eggMetrics.getFrameWidth() + 1) * (eggMetrics.getFrameHeight() + 1);
     }
 
-    private static double factorToChangeToEggShape(int yCoordinate) {
-        return 1 + (0.025 * yCoordinate);
+    private int estimateLength(EggEncoding encoding) {
+        int cellLength = encoding == EggEncoding.PLAIN ? Color.WHITE.getColor().length() : 1;
+        return countCells() * cellLength + eggMetrics.getFrameHeight() + 1;
+    }
+
+    private Color getColor(double eggRatio) {
+        double eggRatioPowered = Math.pow(eggRatio, colorPowerFactor);
+        int index = (int) (eggRatioPowered * ALL_COLORS.length * colorFactor) % ALL_COLORS.length;
+        return ALL_COLORS[index];
     }
 
-    private static int calculateSquare(int radius) {
-        return radius * radius;
+    private Color getEggPoint(EggGeometry eggGeometry, int yCoordinate, int xCoordinate) {
+        double eggRatio = eggGeometry.getEggRatio(xCoordinate, yCoordinate);
+        return eggRatio < 1.0 ? getColor(eggRatio) : eggMetrics.getBackgroundColor();
     }
 }
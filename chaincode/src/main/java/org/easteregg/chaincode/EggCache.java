@@ -0,0 +1,115 @@
+package org.easteregg.chaincode;
+
+import static org.easteregg.chaincode.LogPolicy.Category.CACHE;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+import org.slf4j.event.Level;
+import shared.GlobalConfig.EggEncoding;
+
+/*
+ * Least-recently-used cache of rendered eggs, bounded both in number of entries and in size.
+ * An egg is a pure function of its Key, so a cached egg is identical to a freshly rendered one
+ * and every peer still endorses the same response.
+ */
+@Slf4j
+class EggCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<Key, String> eggs = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long bytes;
+
+    EggCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    // Rendering happens outside the lock; two invocations missing on the same key at once both render,
+    // which is harmless because they produce the same egg.
+    String get(Key key, Supplier<String> renderer) {
+        String egg;
+        synchronized (this) {
+            egg = eggs.get(key);
+        }
+        if (egg != null) {
+            hits.increment();
+            return egg;
+        }
+        misses.increment();
+        egg = renderer.get();
+        put(key, egg);
+        return egg;
+    }
+
+    private synchronized void put(Key key, String egg) {
+        long size = sizeOf(egg);
+        if (size > maxBytes) {
+            return;
+        }
+        String previous = eggs.put(key, egg);
+        bytes += size - (previous == null ? 0 : sizeOf(previous));
+        Iterator<String> leastRecentlyUsed = eggs.values().iterator();
+        while (eggs.size() > maxEntries || bytes > maxBytes) {
+            bytes -= sizeOf(leastRecentlyUsed.next());
+            leastRecentlyUsed.remove();
+            evictions.increment();
+        }
+        if (LogPolicy.isEnabled(CACHE, Level.DEBUG)) {
+            log.debug("Egg cache: {} entries, {} bytes, {} hits, {} misses, {} evictions", eggs.size(), bytes,
+                getHits(), getMisses(), getEvictions());
+        }
+    }
+
+    // Approximate heap size: two bytes per char
+    private static long sizeOf(String egg) {
+        return 2L * egg.length();
+    }
+
+    synchronized int getSize() {
+        return eggs.size();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    // Part of the getMetrics response
+    synchronized JSONObject toJson() {
+        return new JSONObject()
+            .put("entries", eggs.size())
+            .put("bytes", bytes)
+            .put("hits", getHits())
+            .put("misses", getMisses())
+            .put("evictions", getEvictions());
+    }
+
+    // EggMetrics does not override equals(), so eggs are only shared between identical metrics objects
+    @Value
+    static class Key {
+        EggMetrics eggMetrics;
+        double colorFactor;
+        double colorPowerFactor;
+        EggEncoding encoding;
+    }
+}
@@ -0,0 +1,65 @@
+package org.easteregg.chaincode;
+
+/**
+ * The shape of an egg: for every point of the frame, its ratio in a modified ellipse equation:
+ * (x−a)²/rx² + (y−b)²/ry² = 1
+ * <p>
+ * Modified ellipse equation for vertical egg: (x−centerXPoint)²*1000/(horizontalRadius² * (1+(0.025 * y))) +
+ * (y−centerYPoint)²*1000/verticalRadius² = 1000 x, y -> coordinates of a single point on ellipse
+ * <p>
+ * The 0.025 holds for a vertical radius of 22 and is scaled to other radii, so larger eggs keep the same shape.
+ * <p>
+ * Points with a ratio below 1 lie inside the egg. The ratios only depend on the {@link EggMetrics}, so they are
+ * computed once per metrics object and never modified afterwards, which makes them safe to share between
+ * concurrent invocations.
+ */
+public class EggGeometry {
+
+    private static final float EGG_EQUATION_SCALE_FACTOR = 1000;
+    private static final double EGG_SHAPE_FACTOR = 0.025;
+    private static final int EGG_SHAPE_REFERENCE_VERTICAL_RADIUS = 22;
+
+    private final int width;
+    private final int height;
+    private final double[] eggRatios;
+
+    EggGeometry(EggMetrics eggMetrics) {
+        width = eggMetrics.getFrameWidth() + 1;
+        height = eggMetrics.getFrameHeight() + 1;
+        eggRatios = new double[width * height];
+        double shapeFactor = EGG_SHAPE_FACTOR * EGG_SHAPE_REFERENCE_VERTICAL_RADIUS / eggMetrics.getVerticalRadius();
+        for (int yCoordinate = 0; yCoordinate < height; yCoordinate++) {
+            for (int xCoordinate = 0; xCoordinate < width; xCoordinate++) {
+                eggRatios[yCoordinate * width + xCoordinate] =
+                    calculateEggRatio(eggMetrics, shapeFactor, xCoordinate, yCoordinate);
+            }
+        }
+    }
+
+    public double getEggRatio(int xCoordinate, int yCoordinate) {
+        return eggRatios[yCoordinate * width + xCoordinate];
+    }
+
+    private static double calculateEggRatio(EggMetrics eggMetrics, double shapeFactor, int xCoordinate,
+        int yCoordinate) {
+        double numeratorSummand1 =
+            (calculateSquareOfDistance(eggMetrics.getCenterXPoint(), xCoordinate) * EGG_EQUATION_SCALE_FACTOR) / (
+                calculateSquare(eggMetrics.getHorizontalRadius()) * factorToChangeToEggShape(shapeFactor, yCoordinate));
+        double numeratorSummand2 =
+            (calculateSquareOfDistance(eggMetrics.getCenterYPoint(), yCoordinate) * EGG_EQUATION_SCALE_FACTOR)
+                / calculateSquare(eggMetrics.getVerticalRadius());
+        return (numeratorSummand1 + numeratorSummand2) / EGG_EQUATION_SCALE_FACTOR;
+    }
+
+    private static int calculateSquareOfDistance(int centerPoint, int coordinate) {
+        return calculateSquare(coordinate - centerPoint);
+    }
+
+    private static double factorToChangeToEggShape(double shapeFactor, int yCoordinate) {
+        return 1 + (shapeFactor * yCoordinate);
+    }
+
+    private static int calculateSquare(int radius) {
+        return radius * radius;
+    }
+}
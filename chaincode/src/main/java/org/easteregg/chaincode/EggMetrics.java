@@ -8,13 +8,20 @@ public class EggMetrics {
     private final int verticalRadius;
     private int centerXPoint;
     private int centerYPoint;
-    private final String color;
-    private final String backgroundColor;
+    private final Color color;
+    private final Color backgroundColor;
     private int frameHeight;
     private int frameWidth;
+    // Computed on first use and shared by every egg drawn with these metrics
+    @Getter(lazy = true)
+    private final EggGeometry eggGeometry = new EggGeometry(this);
+    // The same egg at twice the vertical resolution, drawn two rows per line by EggEncoding.HALF_BLOCK
+    @Getter(lazy = true)
+    private final EggMetrics halfBlockMetrics = new EggMetrics(horizontalRadius, 2 * verticalRadius, centerXPoint,
+        2 * centerYPoint, color, backgroundColor);
 
     public EggMetrics(final int horizontalRadius, final int verticalRadius, final int centerXPoint,
-        final int centerYPoint, final String color, final String backgroundColor) {
+        final int centerYPoint, final Color color, final Color backgroundColor) {
         this.horizontalRadius = horizontalRadius;
         this.verticalRadius = verticalRadius;
         modifyCenterXPoint(horizontalRadius, centerXPoint);
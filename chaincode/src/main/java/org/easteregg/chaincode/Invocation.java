@@ -1,31 +1,40 @@
 package org.easteregg.chaincode;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.bouncycastle.asn1.x500.style.BCStyle.CN;
-import static shared.GlobalConfig.COMPOSITE_EVENT;
+import static org.easteregg.chaincode.ChaincodeMetrics.Operation.PARSE_CREATOR;
+import static org.easteregg.chaincode.ChaincodeMetrics.Operation.RENDER_EGG;
+import static org.easteregg.chaincode.LogPolicy.Category.EVENTS;
+import static org.easteregg.chaincode.LogPolicy.Category.IDENTITY;
+import static org.easteregg.chaincode.LogPolicy.Category.INVOCATION;
+import static shared.GlobalConfig.MAX_BATCH_ARG_LENGTH;
+import static shared.GlobalConfig.MAX_BATCH_KEYS;
+import static shared.GlobalConfig.MAX_RANGE_PAGE_SIZE;
+import static shared.GlobalConfig.Access;
 import static shared.GlobalConfig.CcFunction;
+import static shared.GlobalConfig.EggEncoding;
 
 import com.google.protobuf.ByteString;
 import org.easteregg.exception.BlockchainDataNotFoundException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.TreeSet;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.math3.util.Pair;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.openssl.PEMParser;
 import org.hyperledger.fabric.protos.msp.Identities;
 import org.hyperledger.fabric.shim.ChaincodeStub;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.slf4j.event.Level;
 
 /*
  * Class used for managing a single invocation.
@@ -37,13 +46,24 @@ public class Invocation extends SkeletonCC {
 
     static final String INCORRECT_N_ARGS_MSG = "Incorrect number of arguments!";
     static final String UNSUPPORTED_FUNCTION_MSG = " function is currently not supported!";
-    private static final EggMetrics EGG_METRICS = new EggMetrics(30, 22, 50, 20, Color.WHITE.getColor(),
-        Color.GREEN.getColor());
+    static final String UNKNOWN_SETTING_MSG = "Unknown setting: ";
+    static final String READ_FUNCTION_WRITES_MSG = " is a read function but tried to write to the ledger!";
+    private static final EggMetrics EGG_METRICS = new EggMetrics(30, 22, 50, 20, Color.WHITE, Color.GREEN);
+    // Upper limits for getEggSized, keeping a plain egg below roughly 5 MB
+    static final int MAX_SIZED_EGG_HORIZONTAL_RADIUS = 400;
+    static final int MAX_SIZED_EGG_VERTICAL_RADIUS = 200;
+    private static final EggCache EGG_CACHE = new EggCache(1024, 32 * 1024 * 1024);
+    private static final CreatorIdentityCache CREATOR_IDENTITIES = new CreatorIdentityCache(1024);
+    // Package-private for DispatchBenchmark, which cannot build its own: the @Invokable methods are private
+    static final InvokableRegistry INVOKABLES = InvokableRegistry.create(MethodHandles.lookup());
     private final ChaincodeStub chaincodeStub;
     private final LedgerService ledgerService = new LedgerService(this);
-    private final ArrayList<Pair<String, JSONObject>> eventList = new ArrayList<>();
+    private CompositeEventWriter eventWriter;
     private long timestamp;
     private String invokingId;
+    private CreatorIdentityCache.Identity invokingIdentity;
+    // Set when the function threw, including the failures that still return a success response
+    private boolean failed;
 
     public Invocation(ChaincodeStub chaincodeStub) {
         this.chaincodeStub = chaincodeStub;
@@ -51,38 +71,70 @@ public class Invocation extends SkeletonCC {
         setup();
     }
 
+    // The egg cache is shared by every invocation on this peer; ChaincodeMetrics reports its counters
+    static EggCache getEggCache() {
+        return EGG_CACHE;
+    }
+
+    // Called once per invocation, from the constructor
     private void setup() {
         timestamp = Optional.ofNullable(chaincodeStub.getTxTimestamp())
             .map(Instant::toEpochMilli)
             .orElse(0L);
-        invokingId = getCN();
+        invokingIdentity = CREATOR_IDENTITIES.get(chaincodeStub.getCreator(),
+            creator -> ChaincodeMetrics.timeOperation(PARSE_CREATOR,
+                () -> CreatorIdentityCache.Identity.fromCommonName(getCN(creator))));
+        invokingId = invokingIdentity.getCommonName();
     }
 
-    // Parse certificate and retrieve common name (CN)
+    // Parse certificate and retrieve common name (CN); package-private for the benchmarks
     @SneakyThrows
-    private String getCN() {
-        byte[] idByteArray = chaincodeStub.getCreator();
+    static String getCN(byte[] idByteArray) {
         ByteString idByteString = Identities.SerializedIdentity.parseFrom(idByteArray).getIdBytes();
-        log.info("ID {}", Arrays.toString(idByteArray));
+        if (LogPolicy.isEnabled(IDENTITY, Level.DEBUG)) {
+            log.debug("ID {}", LogPolicy.truncate(Arrays.toString(idByteArray)));
+        }
         Reader pemReader = new StringReader(new String(idByteString.toByteArray()));
         PEMParser pemParser = new PEMParser(pemReader);
         X509CertificateHolder cert = (X509CertificateHolder) pemParser.readObject();
         pemParser.close();
         String cn = cert.getSubject().getRDNs(CN)[0].getFirst().getValue().toString();
-        log.info("CN = {}", cn);
+        if (LogPolicy.isEnabled(IDENTITY, Level.INFO)) {
+            log.info("CN = {}", cn);
+        }
         return cn;
     }
 
+    // Init takes no arguments other than settings of the form name=value, see LogPolicy.
+    // The settings only apply to the chaincode processes that handle the init; use the environment for all of them.
     Response performInit() {
-        if (!chaincodeStub.getParameters().isEmpty()) {
-            return newErrorResponse(INCORRECT_N_ARGS_MSG);
+        String logSpec = null;
+        Integer logMaxPayload = null;
+        try {
+            for (String param : chaincodeStub.getParameters()) {
+                String[] setting = param.split("=", 2);
+                if (setting.length != 2) {
+                    return newErrorResponse(INCORRECT_N_ARGS_MSG);
+                } else if (setting[0].equals(LogPolicy.LOG_SETTING)) {
+                    logSpec = setting[1];
+                } else if (setting[0].equals(LogPolicy.LOG_MAX_PAYLOAD_SETTING)) {
+                    logMaxPayload = Integer.valueOf(setting[1]);
+                } else {
+                    return newErrorResponse(UNKNOWN_SETTING_MSG + setting[0]);
+                }
+            }
+            LogPolicy.configure(logSpec, logMaxPayload);
+        } catch (IllegalArgumentException e) {
+            return newErrorResponse(e.getMessage());
         }
-        setup();
         return newSuccessResponse();
     }
 
     private void dumpInvocation() {
-        log.info("{}({})", chaincodeStub.getFunction(), String.join(", ", chaincodeStub.getParameters()));
+        if (LogPolicy.isEnabled(INVOCATION, Level.INFO)) {
+            log.info("{}({})", chaincodeStub.getFunction(),
+                LogPolicy.truncate(String.join(", ", chaincodeStub.getParameters())));
+        }
     }
 
     private void validateInvocation(CcFunction function, String methodName, List<String> paramList) {
@@ -99,34 +151,40 @@ public class Invocation extends SkeletonCC {
 
     // The central function that handles every invocation
     Response performInvocation() {
-        setup();
-        dumpInvocation();
-
         String methodName = chaincodeStub.getFunction();
         List<String> paramList = chaincodeStub.getParameters();
         CcFunction invokedFunction = CcFunction.fromString(methodName);
         try {
             validateInvocation(invokedFunction, methodName, paramList);
-            Response response = executeMethodByName(methodName, paramList);
+            Response response = executeFunction(invokedFunction, paramList);
+            if (invokedFunction.getAccess() == Access.READ && ledgerService.hasPendingWrites()) {
+                // Clients only query READ functions, so these writes would silently be lost
+                throw new IllegalStateException(methodName + READ_FUNCTION_WRITES_MSG);
+            }
+            ledgerService.flushWrites();
             sendEventQueue();
             return response;
         } catch (InvocationTargetException e) {
+            failed = true;
+            // This still results in a successful transaction, so drop the writes made before the failure rather
+            // than committing half of them
+            ledgerService.discardWrites();
             log.error(e.getTargetException().getMessage());
             e.getTargetException().printStackTrace();
             return newSuccessResponse(e.getTargetException().getMessage());
         } catch (Exception e) {
+            failed = true;
             log.error(e.getMessage());
             e.printStackTrace();
             return newErrorResponse(e.getMessage());
         }
     }
 
-    private Response executeMethodByName(String methodName, List<String> paramList)
-        throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
-        log.info("executeMethodByName({}, {})", methodName, String.join(", ", paramList));
-        Method method = getClass().getDeclaredMethod(methodName, List.class);
-        method.setAccessible(true);
-        return (Response) method.invoke(this, paramList);
+    private Response executeFunction(CcFunction function, List<String> paramList) throws InvocationTargetException {
+        if (LogPolicy.isEnabled(INVOCATION, Level.DEBUG)) {
+            log.debug("executeFunction({})", function.getName());
+        }
+        return INVOKABLES.invoke(function, this, paramList);
     }
 
     @Invokable
@@ -134,6 +192,22 @@ public class Invocation extends SkeletonCC {
         return newSuccessResponse(ledgerService.queryHistoryWrapper(paramList.get(0)));
     }
 
+    // Args: key, page size, bookmark (empty for the first page), from and to as epoch milliseconds (empty for no limit)
+    @Invokable
+    private Response queryHistoryPage(List<String> paramList) {
+        int pageSize = Integer.parseInt(paramList.get(1));
+        if (pageSize < 1 || pageSize > LedgerService.MAX_HISTORY_PAGE_SIZE) {
+            throw new IllegalArgumentException(
+                "Page size must be between 1 and " + LedgerService.MAX_HISTORY_PAGE_SIZE + ", got " + pageSize);
+        }
+        return newSuccessResponse(ledgerService.queryHistoryPageWrapper(paramList.get(0), pageSize, paramList.get(2),
+            parseOptionalMillis(paramList.get(3)), parseOptionalMillis(paramList.get(4))));
+    }
+
+    private static Long parseOptionalMillis(String millis) {
+        return millis.isEmpty() ? null : Long.valueOf(millis);
+    }
+
     @Invokable
     private Response queryTestVar(List<String> paramList) throws BlockchainDataNotFoundException {
         return newSuccessResponse(ledgerService.getStringStateWrapper(paramList.get(0)));
@@ -143,59 +217,192 @@ public class Invocation extends SkeletonCC {
     private Response setTestVar(List<String> paramList) {
         String varName = paramList.get(0);
         String newValue = paramList.get(1);
+        checkTestVarKey(varName);
         ledgerService.putStringStateWrapper(varName, newValue);
         return newSuccessResponse();
     }
 
+    @Invokable
+    private Response batchQueryTestVars(List<String> paramList) {
+        JSONArray keys = new JSONArray(checkBatchArg(paramList.get(0)));
+        checkBatchKeyCount(keys.length());
+        List<String> keyList = new ArrayList<>(keys.length());
+        for (int i = 0; i < keys.length(); i++) {
+            keyList.add(keys.getString(i));
+        }
+        return newSuccessResponse(ledgerService.getStringStatesWrapper(keyList));
+    }
+
+    // Every key and value is checked before the first write, so a batch is written either completely or not at all.
+    // Keys are written in sorted order, so the write set does not depend on the order of the JSON object
+    @Invokable
+    private Response batchSetTestVars(List<String> paramList) {
+        JSONObject values = new JSONObject(checkBatchArg(paramList.get(0)));
+        checkBatchKeyCount(values.length());
+        for (String varName : values.keySet()) {
+            checkTestVarKey(varName);
+            if (!(values.get(varName) instanceof String)) {
+                throw new IllegalArgumentException("Value of " + varName + " must be a string");
+            }
+        }
+        for (String varName : new TreeSet<>(values.keySet())) {
+            ledgerService.putStringStateWrapper(varName, values.getString(varName));
+        }
+        return newSuccessResponse();
+    }
+
+    @Invokable
+    private Response queryTestVarRange(List<String> paramList) {
+        int pageSize = Integer.parseInt(paramList.get(2));
+        if (pageSize < 1 || pageSize > MAX_RANGE_PAGE_SIZE) {
+            throw new IllegalArgumentException(
+                "Page size must be between 1 and " + MAX_RANGE_PAGE_SIZE + ", got " + pageSize);
+        }
+        return newSuccessResponse(
+            ledgerService.queryStateRangeWrapper(paramList.get(0), paramList.get(1), pageSize, paramList.get(3)));
+    }
+
+    // Test variables may be anything but a stored egg
+    private static void checkTestVarKey(String varName) {
+        if (varName.startsWith(StoredEgg.KEY_PREFIX)) {
+            throw new IllegalArgumentException("Keys starting with " + StoredEgg.KEY_PREFIX + " are reserved");
+        }
+    }
+
+    private static String checkBatchArg(String batchArg) {
+        if (batchArg.length() > MAX_BATCH_ARG_LENGTH) {
+            throw new IllegalArgumentException(
+                "Batch argument may be at most " + MAX_BATCH_ARG_LENGTH + " characters, got " + batchArg.length());
+        }
+        return batchArg;
+    }
+
+    private static void checkBatchKeyCount(int nKeys) {
+        if (nKeys > MAX_BATCH_KEYS) {
+            throw new IllegalArgumentException("A batch may hold at most " + MAX_BATCH_KEYS + " keys, got " + nKeys);
+        }
+    }
+
+    // The metrics of this peer only, so every peer answers differently: query it, never submit it in a transaction
+    @Invokable
+    private Response getMetrics(List<String> paramList) {
+        return newSuccessResponse(ChaincodeMetrics.toJson().toString());
+    }
+
     @Invokable
     private Response getEgg(List<String> paramList) {
-        return newSuccessResponse(createEgg());
+        return newSuccessResponse(createEgg(EggEncoding.PLAIN));
+    }
+
+    @Invokable
+    private Response getEggEncoded(List<String> paramList) {
+        return newSuccessResponse(createEgg(EggEncoding.fromString(paramList.get(0))));
     }
 
-    private String createEgg() {
-        int hashCode = invokingId.hashCode();
-        double colorFactor = 15 + (hashCode % 35);
-        double colorPowerFactor = 0.2 + (hashCode % 1.8);
-        return new EasterEggBuilder(EGG_METRICS, colorFactor, colorPowerFactor).build();
+    // Reads the caller's egg from the ledger, without writing anything. If it was not stored, or was stored by another
+    // version, the egg is rendered and returned with stored = false; storeEgg then stores it for later calls.
+    @Invokable
+    private Response getStoredEgg(List<String> paramList) {
+        EggEncoding encoding = EggEncoding.fromString(paramList.get(0));
+        StoredEgg storedEgg = readStoredEgg(encoding);
+        boolean stored = storedEgg != null;
+        if (!stored) {
+            storedEgg = StoredEgg.of(createEgg(encoding), EGG_METRICS);
+        }
+        return newSuccessResponse(storedEgg.toJson().put("stored", stored).toString());
+    }
+
+    // Renders the caller's egg and stores it on the ledger, unless an up to date one is stored already
+    @Invokable
+    private Response storeEgg(List<String> paramList) {
+        EggEncoding encoding = EggEncoding.fromString(paramList.get(0));
+        StoredEgg storedEgg = readStoredEgg(encoding);
+        if (storedEgg == null) {
+            storedEgg = StoredEgg.of(createEgg(encoding), EGG_METRICS);
+            ledgerService.putStringStateWrapper(StoredEgg.key(invokingId, encoding), storedEgg.toJson().toString());
+        }
+        return newSuccessResponse(storedEgg.getHash());
+    }
+
+    // Returns null unless an up to date egg is stored for the caller
+    private StoredEgg readStoredEgg(EggEncoding encoding) {
+        StoredEgg storedEgg = StoredEgg.fromJson(
+            ledgerService.getOptionalStringStateWrapper(StoredEgg.key(invokingId, encoding)));
+        return storedEgg != null && storedEgg.isCurrent(EGG_METRICS) ? storedEgg : null;
+    }
+
+    // Not cached: sized eggs are large and rarely requested twice with the same dimensions
+    @Invokable
+    private Response getEggSized(List<String> paramList) {
+        int horizontalRadius = parseRadius(paramList.get(0), MAX_SIZED_EGG_HORIZONTAL_RADIUS);
+        int verticalRadius = parseRadius(paramList.get(1), MAX_SIZED_EGG_VERTICAL_RADIUS);
+        EggEncoding encoding = EggEncoding.fromString(paramList.get(2));
+        EggMetrics eggMetrics = new EggMetrics(horizontalRadius, verticalRadius, horizontalRadius, verticalRadius,
+            Color.WHITE, Color.GREEN);
+        EasterEggBuilder eggBuilder = createEggBuilder(eggMetrics);
+        return newSuccessResponse(ChaincodeMetrics.timeOperation(RENDER_EGG, () -> eggBuilder.build(encoding)));
+    }
+
+    private static int parseRadius(String radius, int maxRadius) {
+        int parsedRadius = Integer.parseInt(radius);
+        if (parsedRadius < 1 || parsedRadius > maxRadius) {
+            throw new IllegalArgumentException("Radius must be between 1 and " + maxRadius + ", got " + radius);
+        }
+        return parsedRadius;
+    }
+
+    @Invokable
+    private Response getEggFrame(List<String> paramList) {
+        EasterEggBuilder eggBuilder = createEggBuilder(EGG_METRICS);
+        return newSuccessResponse(ChaincodeMetrics.timeOperation(RENDER_EGG, eggBuilder::buildFrame));
+    }
+
+    private String createEgg(EggEncoding encoding) {
+        EasterEggBuilder eggBuilder = createEggBuilder(EGG_METRICS);
+        EggCache.Key key = new EggCache.Key(EGG_METRICS, eggBuilder.getColorFactor(), eggBuilder.getColorPowerFactor(),
+            encoding);
+        return EGG_CACHE.get(key,
+            () -> ChaincodeMetrics.timeOperation(RENDER_EGG, () -> eggBuilder.build(encoding)));
+    }
+
+    private EasterEggBuilder createEggBuilder(EggMetrics eggMetrics) {
+        return new EasterEggBuilder(eggMetrics, invokingIdentity.getColorFactor(),
+            invokingIdentity.getColorPowerFactor());
     }
 
     @SuppressWarnings("SameParameterValue")
     void queueEvent(String eventName, String contents) {
-        JSONObject jsonContents = new JSONObject();
-        jsonContents.put("contents", contents);
-        queueEvent(eventName, jsonContents);
+        appendEvent(eventName, "{\"contents\":" + JSONObject.quote(contents) + "}");
     }
 
     void queueEvent(String eventName, JSONObject contents) {
-        log.info("Queueing {} ({})", eventName, contents.toString());
-        eventList.add(new Pair<>(eventName, contents));
+        appendEvent(eventName, contents.toString());
     }
 
-    private JSONArray getEventsAsJsonArray() {
-        JSONArray eventsArrayJson = new JSONArray();
-        for (Pair<String, JSONObject> eventPair : eventList) {
-            JSONObject eventJson = new JSONObject();
-            eventJson.put(eventPair.getKey(), eventPair.getValue());
-            eventsArrayJson.put(eventJson);
+    // Events are written into the composite event as they are queued
+    private void appendEvent(String eventName, String contentsJson) {
+        if (LogPolicy.isEnabled(EVENTS, Level.DEBUG)) {
+            log.debug("Queueing {} ({})", eventName, LogPolicy.truncate(contentsJson));
         }
-        return eventsArrayJson;
-    }
-
-    private JSONObject createCompositeEvent(JSONArray eventsJsonArray) {
-        JSONObject compositeEventJson = new JSONObject();
-        compositeEventJson.put("txId", chaincodeStub.getTxId());
-        compositeEventJson.put("txTimestamp", timestamp);
-        compositeEventJson.put("events", eventsJsonArray);
-        return compositeEventJson;
+        if (eventWriter == null) {
+            eventWriter = CompositeEventWriter.forTransaction(chaincodeStub.getTxId(), timestamp);
+        }
+        eventWriter.append(eventName, contentsJson);
     }
 
     private void sendEventQueue() {
-        JSONArray eventsJsonArray = getEventsAsJsonArray();
-        eventList.clear();
-        if (!eventsJsonArray.isEmpty()) {
-            JSONObject compositeEventJson = createCompositeEvent(eventsJsonArray);
-            log.info("Setting event: {} ({})", COMPOSITE_EVENT, compositeEventJson.toString());
-            chaincodeStub.setEvent(COMPOSITE_EVENT, compositeEventJson.toString().getBytes(UTF_8));
+        if (eventWriter != null) {
+            byte[] compositeEvent = eventWriter.finish();
+            String eventName = eventWriter.getEncoding().getEventName();
+            if (LogPolicy.isEnabled(EVENTS, Level.INFO)) {
+                log.info("Setting event: {} ({} events, {} dropped, {} bytes)", eventName, eventWriter.getNEvents(),
+                    eventWriter.getNDroppedEvents(), compositeEvent.length);
+            }
+            if (eventWriter.getNDroppedEvents() > 0 && LogPolicy.isEnabled(EVENTS, Level.WARN)) {
+                log.warn("Dropped {} events that did not fit in {}", eventWriter.getNDroppedEvents(), eventName);
+            }
+            eventWriter = null;
+            chaincodeStub.setEvent(eventName, compositeEvent);
         }
     }
 }
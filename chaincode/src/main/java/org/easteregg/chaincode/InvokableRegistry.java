@@ -0,0 +1,74 @@
+package org.easteregg.chaincode;
+
+import static shared.GlobalConfig.CcFunction;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hyperledger.fabric.shim.Chaincode.Response;
+
+/*
+ * Dispatch table from CcFunction to the @Invokable method of Invocation that implements it.
+ * Built once when Invocation is loaded, so a single invocation costs a map lookup and a MethodHandle call
+ * instead of a reflective method lookup. Mismatches between CcFunction and the @Invokable methods fail at startup.
+ */
+final class InvokableRegistry {
+    private static final MethodType HANDLER_TYPE = MethodType.methodType(Response.class, Invocation.class, List.class);
+
+    private final Map<CcFunction, MethodHandle> handlers;
+
+    private InvokableRegistry(Map<CcFunction, MethodHandle> handlers) {
+        this.handlers = handlers;
+    }
+
+    // The lookup must originate from Invocation, as the @Invokable methods are private
+    static InvokableRegistry create(MethodHandles.Lookup lookup) {
+        Map<CcFunction, MethodHandle> handlers = new EnumMap<>(CcFunction.class);
+        for (Method method : Invocation.class.getDeclaredMethods()) {
+            if (!method.isAnnotationPresent(Invokable.class)) {
+                continue;
+            }
+            CcFunction function = CcFunction.fromString(method.getName());
+            if (function == null) {
+                throw new IllegalStateException("@Invokable " + method.getName() + " has no matching CcFunction");
+            }
+            handlers.put(function, toHandle(lookup, method));
+        }
+        Set<CcFunction> unhandled = EnumSet.complementOf(EnumSet.copyOf(handlers.keySet()));
+        if (!unhandled.isEmpty()) {
+            throw new IllegalStateException("No @Invokable method found for " + unhandled);
+        }
+        return new InvokableRegistry(handlers);
+    }
+
+    private static MethodHandle toHandle(MethodHandles.Lookup lookup, Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (parameterTypes.length != 1 || parameterTypes[0] != List.class
+            || !Response.class.isAssignableFrom(method.getReturnType())) {
+            throw new IllegalStateException(
+                "@Invokable " + method.getName() + " must take a List and return a Response");
+        }
+        try {
+            return lookup.unreflect(method).asType(HANDLER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("@Invokable " + method.getName() + " is not accessible", e);
+        }
+    }
+
+    // Exceptions thrown by the function itself are wrapped, like Method.invoke() would
+    Response invoke(CcFunction function, Invocation invocation, List<String> paramList)
+        throws InvocationTargetException {
+        try {
+            return (Response) handlers.get(function).invokeExact(invocation, paramList);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+}
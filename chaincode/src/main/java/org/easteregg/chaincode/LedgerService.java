@@ -1,54 +1,262 @@
 package org.easteregg.chaincode;
 
-import org.easteregg.exception.BlockchainDataNotFoundException;
+import static org.easteregg.chaincode.ChaincodeMetrics.Operation.GET_HISTORY;
+import static org.easteregg.chaincode.ChaincodeMetrics.Operation.GET_STATE;
+import static org.easteregg.chaincode.ChaincodeMetrics.Operation.GET_STATE_BY_RANGE;
+import static org.easteregg.chaincode.ChaincodeMetrics.Operation.PUT_STATE;
+import static org.easteregg.chaincode.LogPolicy.Category.LEDGER;
+
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.easteregg.exception.BlockchainDataNotFoundException;
 import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
 import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.slf4j.event.Level;
 
 /*
  * This class contains functions to help with reading values from/updating values to the ledger
+ *
+ * It lives as long as a single invocation, and caches within that transaction: every key is read from the stub at
+ * most once, and writes are held back until flushWrites() (or forgotten by discardWrites()). Writes that leave a
+ * value unchanged are dropped.
+ * Like the stub itself, reads return the state from before the transaction, never the transaction's own writes.
  */
 @Slf4j
 class LedgerService {
-    public static final boolean LOG_BC_ACTIONS = true;
+    static final int MAX_HISTORY_PAGE_SIZE = 1000;
+    // Buffers that grew beyond this are dropped after use instead of being kept for the next response
+    private static final int MAX_RETAINED_JSON_BUFFER = 1 << 20;
+    private static final ThreadLocal<StringBuilder> JSON_BUFFER =
+        ThreadLocal.withInitial(() -> new StringBuilder(4096));
+
+    // Stub calls saved by the transaction cache, over all invocations
+    private static final LongAdder CACHED_READS = new LongAdder();
+    private static final LongAdder ELIDED_WRITES = new LongAdder();
 
     private final Invocation invocation;
+    private final Map<String, String> readValues = new HashMap<>();
+    private final Map<String, String> pendingWrites = new LinkedHashMap<>();
 
     LedgerService(Invocation invocation) {
         this.invocation = invocation;
     }
 
+    static long getCachedReads() {
+        return CACHED_READS.sum();
+    }
+
+    static long getElidedWrites() {
+        return ELIDED_WRITES.sum();
+    }
+
     // Retrieves the latest value for a key up until a certain timestamp/txId combination.
     // The transaction belonging to txId MUST have taken place at the given timestamp
     // Assumes that not two transactions can take place on the same timestamp
     String getStringStateWrapper(String key) throws BlockchainDataNotFoundException {
-        String result = invocation.getChaincodeStub().getStringState(key);
-        if (LOG_BC_ACTIONS) {
-            log.info("getStringState({}) = {}", key, result);
-        }
+        String result = readStringState(key);
         if (result == null || result.isEmpty()) {
             throw new BlockchainDataNotFoundException(key);
         }
         return result;
     }
 
-    // Writes a key/value pair to the ledger.
-    // You could change this function to only write if the value is different from the one already on the chain.
+    // Like getStringStateWrapper, but returns null instead of throwing when the key has no value
+    String getOptionalStringStateWrapper(String key) {
+        String result = readStringState(key);
+        return result == null || result.isEmpty() ? null : result;
+    }
+
+    // Returns a JSON object with the value of every key, in the given order; missing keys have a null value.
+    String getStringStatesWrapper(List<String> keys) {
+        StringBuilder json = borrowJsonBuffer().append('{');
+        for (String key : keys) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            String value = readStringState(key);
+            json.append(JSONObject.quote(key)).append(':')
+                .append(value == null || value.isEmpty() ? "null" : JSONObject.quote(value));
+        }
+        return releaseJsonBuffer(json.append('}'));
+    }
+
+    private String readStringState(String key) {
+        String result;
+        if (readValues.containsKey(key)) {
+            result = readValues.get(key);
+            CACHED_READS.increment();
+        } else {
+            long startNanos = System.nanoTime();
+            result = invocation.getChaincodeStub().getStringState(key);
+            ChaincodeMetrics.recordOperation(GET_STATE, startNanos);
+            readValues.put(key, result);
+        }
+        if (LogPolicy.isEnabled(LEDGER, Level.INFO)) {
+            log.info("getStringState({}) = {}", key, LogPolicy.truncate(result));
+        }
+        return result;
+    }
+
+    // Writes a key/value pair to the ledger once flushWrites() is called.
+    // The write is dropped if this transaction read the same value from the ledger, or if it gets overwritten later on.
     void putStringStateWrapper(String key, String value) {
-        if (LOG_BC_ACTIONS) {
-            log.info("putStringState({}, {})", key, value);
+        if (LogPolicy.isEnabled(LEDGER, Level.INFO)) {
+            log.info("putStringState({}, {})", key, LogPolicy.truncate(value));
+        }
+        String previousWrite = pendingWrites.remove(key);
+        if (previousWrite != null) {
+            ELIDED_WRITES.increment();
+        }
+        if (readValues.containsKey(key) && Objects.equals(readValues.get(key), value)) {
+            ELIDED_WRITES.increment();
+            return;
         }
-        invocation.getChaincodeStub().putStringState(key, value);
+        pendingWrites.put(key, value);
+    }
+
+    boolean hasPendingWrites() {
+        return !pendingWrites.isEmpty();
+    }
+
+    // Hands the remaining writes to the stub, in the order they were made
+    void flushWrites() {
+        pendingWrites.forEach((key, value) -> {
+            long startNanos = System.nanoTime();
+            invocation.getChaincodeStub().putStringState(key, value);
+            ChaincodeMetrics.recordOperation(PUT_STATE, startNanos);
+        });
+        pendingWrites.clear();
+        if (LogPolicy.isEnabled(LEDGER, Level.DEBUG)) {
+            log.debug("Transaction cache: {} reads and {} writes saved so far", getCachedReads(), getElidedWrites());
+        }
+    }
+
+    // Forgets the remaining writes, for a function that failed halfway
+    void discardWrites() {
+        pendingWrites.clear();
     }
 
     // Returns the history for a key, contained in a JSON object.
+    @SneakyThrows
     String queryHistoryWrapper(String key) {
-        QueryResultsIterator<KeyModification> queryResultsIterator = invocation.getChaincodeStub().getHistoryForKey(key);
-        return buildJsonFromQueryResult(queryResultsIterator);
+        long startNanos = System.nanoTime();
+        try (QueryResultsIterator<KeyModification> queryResultsIterator =
+            invocation.getChaincodeStub().getHistoryForKey(key)) {
+            return buildJsonFromQueryResult(queryResultsIterator);
+        } finally {
+            ChaincodeMetrics.recordOperation(GET_HISTORY, startNanos);
+        }
+    }
+
+    // Returns one page of the history for a key: at most pageSize modifications made after the one with txId bookmark
+    // (or from the start if bookmark is empty), with a timestamp in [fromMillis, toMillis) if those are given.
+    // A bookmark that is not in the history of the key is refused.
+    // The JSON is written directly into a buffer that is reused between calls, and the history is only read until
+    // the page is full. The peer returns the history in commit order, but the timestamps are the ones the clients
+    // proposed and do not always increase, so a modification past toMillis does not end the scan.
+    // The returned bookmark is the txId of the last modification on a full page, otherwise empty.
+    @SneakyThrows
+    String queryHistoryPageWrapper(String key, int pageSize, String bookmark, Long fromMillis, Long toMillis) {
+        StringBuilder json = borrowJsonBuffer().append("{\"transactions\":[");
+        int nWritten = 0;
+        String lastTxId = null;
+        boolean pastBookmark = bookmark.isEmpty();
+        long startNanos = System.nanoTime();
+        try (QueryResultsIterator<KeyModification> queryResultsIterator =
+            invocation.getChaincodeStub().getHistoryForKey(key)) {
+            for (KeyModification keyModification : queryResultsIterator) {
+                if (!pastBookmark) {
+                    pastBookmark = keyModification.getTxId().equals(bookmark);
+                    continue;
+                }
+                long timestamp = keyModification.getTimestamp().toEpochMilli();
+                if ((fromMillis != null && timestamp < fromMillis) || (toMillis != null && timestamp >= toMillis)) {
+                    continue;
+                }
+                if (nWritten++ > 0) {
+                    json.append(',');
+                }
+                appendKeyModification(json, keyModification);
+                lastTxId = keyModification.getTxId();
+                if (nWritten == pageSize) {
+                    break;
+                }
+            }
+        } finally {
+            ChaincodeMetrics.recordOperation(GET_HISTORY, startNanos);
+        }
+        if (!pastBookmark) {
+            throw new IllegalArgumentException("Unknown bookmark " + bookmark + " for the history of " + key);
+        }
+        json.append("],\"bookmark\":").append(JSONObject.quote(nWritten == pageSize ? lastTxId : "")).append('}');
+        if (LogPolicy.isEnabled(LEDGER, Level.INFO)) {
+            log.info("queryHistoryPage({}, {}, {}) returned {} modifications", key, pageSize, bookmark, nWritten);
+        }
+        return releaseJsonBuffer(json);
+    }
+
+    // Returns one page of the keys in [startKey, endKey) with their values, and the bookmark for the next page
+    // (empty on the last page). Pagination is done by the peer, so only one page is ever read.
+    @SneakyThrows
+    String queryStateRangeWrapper(String startKey, String endKey, int pageSize, String bookmark) {
+        StringBuilder json = borrowJsonBuffer().append("{\"results\":[");
+        int nWritten = 0;
+        String nextBookmark;
+        long startNanos = System.nanoTime();
+        try (QueryResultsIteratorWithMetadata<KeyValue> queryResultsIterator =
+            invocation.getChaincodeStub().getStateByRangeWithPagination(startKey, endKey, pageSize, bookmark)) {
+            for (KeyValue keyValue : queryResultsIterator) {
+                if (nWritten++ > 0) {
+                    json.append(',');
+                }
+                json.append("{\"key\":").append(JSONObject.quote(keyValue.getKey()))
+                    .append(",\"value\":").append(JSONObject.quote(keyValue.getStringValue()))
+                    .append('}');
+            }
+            nextBookmark = nWritten < pageSize || queryResultsIterator.getMetadata() == null
+                ? "" : queryResultsIterator.getMetadata().getBookmark();
+        } finally {
+            ChaincodeMetrics.recordOperation(GET_STATE_BY_RANGE, startNanos);
+        }
+        json.append("],\"bookmark\":").append(JSONObject.quote(nextBookmark)).append('}');
+        if (LogPolicy.isEnabled(LEDGER, Level.INFO)) {
+            log.info("getStateByRange({}, {}, {}, {}) returned {} keys", startKey, endKey, pageSize, bookmark,
+                nWritten);
+        }
+        return releaseJsonBuffer(json);
+    }
+
+    // JSON responses are written into a per-thread buffer that is reused between invocations
+    private static StringBuilder borrowJsonBuffer() {
+        StringBuilder json = JSON_BUFFER.get();
+        json.setLength(0);
+        return json;
+    }
+
+    private static String releaseJsonBuffer(StringBuilder json) {
+        String result = json.toString();
+        if (json.capacity() > MAX_RETAINED_JSON_BUFFER) {
+            JSON_BUFFER.remove();
+        }
+        return result;
+    }
+
+    private static void appendKeyModification(StringBuilder json, KeyModification keyModification) {
+        json.append("{\"transactionId\":").append(JSONObject.quote(keyModification.getTxId()))
+            .append(",\"timestamp\":").append(JSONObject.quote(keyModification.getTimestamp().toString()))
+            .append(",\"value\":").append(JSONObject.quote(keyModification.getStringValue()))
+            .append(",\"isDeleted\":").append(keyModification.isDeleted())
+            .append('}');
     }
 
     // Helper function for queryHistoryWrapper.
@@ -0,0 +1,141 @@
+package org.easteregg.chaincode;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.event.Level;
+
+/*
+ * Decides which log lines of the chaincode are written: every Category has its own level and can be sampled, so
+ * only one in every n of its lines that pass the level are written. Callers check isEnabled() before building a
+ * message, so nothing is formatted for lines that are not written. Logged payloads are cut off at a maximum length.
+ *
+ * The policy is read from the environment when the chaincode starts, and can be replaced through the init
+ * arguments (see Invocation.performInit). Both use the same settings:
+ *   log            comma separated category=level[/n] entries, e.g. "ledger=debug/100,result=warn,*=info";
+ *                  the category * applies to all categories, and the levels are off, error, warn, info, debug, trace
+ *   logMaxPayload  the maximum number of characters of a logged payload
+ * Errors are always logged; this policy only applies to the lines that describe normal operation.
+ */
+final class LogPolicy {
+
+    enum Category {
+        // Start and arguments of an invocation
+        INVOCATION,
+        // The response of an invocation
+        RESULT,
+        // Reads and writes of the ledger
+        LEDGER,
+        // Parsing the creator of a transaction
+        IDENTITY,
+        EVENTS,
+        CACHE,
+        // Periodic dump of ChaincodeMetrics
+        METRICS
+    }
+
+    static final String LOG_ENV = "EASTEREGG_LOG";
+    static final String LOG_MAX_PAYLOAD_ENV = "EASTEREGG_LOG_MAX_PAYLOAD";
+    static final String LOG_SETTING = "log";
+    static final String LOG_MAX_PAYLOAD_SETTING = "logMaxPayload";
+    static final String DEFAULT_SPEC = "*=info";
+    static final int DEFAULT_MAX_PAYLOAD_CHARS = 256;
+    private static final int OFF = Integer.MAX_VALUE;
+
+    private static volatile LogPolicy current = fromEnvironment();
+
+    private final int[] thresholds = new int[Category.values().length];
+    private final int[] sampleEvery = new int[Category.values().length];
+    private final AtomicLong[] sampleCounters = new AtomicLong[Category.values().length];
+    private final String spec;
+    private final int maxPayloadChars;
+
+    private LogPolicy(String spec, int maxPayloadChars) {
+        if (maxPayloadChars < 0) {
+            throw new IllegalArgumentException("Maximum logged payload length must not be negative");
+        }
+        this.spec = spec;
+        this.maxPayloadChars = maxPayloadChars;
+        Arrays.fill(sampleEvery, 1);
+        Arrays.setAll(sampleCounters, i -> new AtomicLong());
+        Arrays.fill(thresholds, Level.INFO.toInt());
+        for (String entry : spec.split(",")) {
+            if (!entry.trim().isEmpty()) {
+                parseEntry(entry.trim());
+            }
+        }
+    }
+
+    private void parseEntry(String entry) {
+        String[] categoryAndRule = entry.split("=", 2);
+        String[] levelAndSampling = categoryAndRule.length == 2 ? categoryAndRule[1].split("/", 2) : new String[0];
+        if (levelAndSampling.length == 0) {
+            throw new IllegalArgumentException("Log setting must look like category=level[/n], got " + entry);
+        }
+        int threshold = parseLevel(levelAndSampling[0]);
+        int sampling = levelAndSampling.length == 2 ? Integer.parseInt(levelAndSampling[1]) : 1;
+        if (sampling < 1) {
+            throw new IllegalArgumentException("Log sampling must be at least 1, got " + sampling);
+        }
+        String categoryName = categoryAndRule[0].trim();
+        if (categoryName.equals("*")) {
+            Arrays.fill(thresholds, threshold);
+            Arrays.fill(sampleEvery, sampling);
+        } else {
+            int category = Category.valueOf(categoryName.toUpperCase(Locale.ROOT)).ordinal();
+            thresholds[category] = threshold;
+            sampleEvery[category] = sampling;
+        }
+    }
+
+    private static int parseLevel(String level) {
+        String levelName = level.trim().toUpperCase(Locale.ROOT);
+        return levelName.equals("OFF") ? OFF : Level.valueOf(levelName).toInt();
+    }
+
+    static LogPolicy fromEnvironment() {
+        return new LogPolicy(Optional.ofNullable(System.getenv(LOG_ENV)).orElse(DEFAULT_SPEC),
+            Optional.ofNullable(System.getenv(LOG_MAX_PAYLOAD_ENV)).map(Integer::valueOf)
+                .orElse(DEFAULT_MAX_PAYLOAD_CHARS));
+    }
+
+    // Replaces the policy; a null argument keeps the current value of that setting
+    static void configure(String spec, Integer maxPayloadChars) {
+        LogPolicy previous = current;
+        current = new LogPolicy(spec == null ? previous.spec : spec,
+            maxPayloadChars == null ? previous.maxPayloadChars : maxPayloadChars);
+    }
+
+    static void reset() {
+        current = fromEnvironment();
+    }
+
+    static boolean isEnabled(Category category, Level level) {
+        LogPolicy policy = current;
+        int i = category.ordinal();
+        if (level.toInt() < policy.thresholds[i]) {
+            return false;
+        }
+        return policy.sampleEvery[i] == 1 || policy.sampleCounters[i].getAndIncrement() % policy.sampleEvery[i] == 0;
+    }
+
+    static String truncate(String payload) {
+        int maxPayloadChars = current.maxPayloadChars;
+        if (payload == null || payload.length() <= maxPayloadChars) {
+            return payload;
+        }
+        return payload.substring(0, maxPayloadChars) + "... (" + payload.length() + " chars)";
+    }
+
+    // Only decodes the part of the payload that is logged
+    static String truncate(byte[] payload) {
+        int maxPayloadChars = current.maxPayloadChars;
+        if (payload == null || payload.length <= maxPayloadChars) {
+            return payload == null ? "" : new String(payload, UTF_8);
+        }
+        return new String(payload, 0, maxPayloadChars, UTF_8) + "... (" + payload.length + " bytes)";
+    }
+}
@@ -1,8 +1,13 @@
 package org.easteregg.chaincode;
 
+import static org.easteregg.chaincode.LogPolicy.Category.INVOCATION;
+import static org.easteregg.chaincode.LogPolicy.Category.RESULT;
+
 import lombok.extern.slf4j.Slf4j;
 import org.hyperledger.fabric.shim.ChaincodeBase;
 import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.slf4j.event.Level;
+import shared.GlobalConfig.CcFunction;
 
 @Slf4j
 class SkeletonCC extends ChaincodeBase {
@@ -15,26 +20,47 @@ class SkeletonCC extends ChaincodeBase {
     // Called when instantiating the Chaincode
     @Override
     public Response init(ChaincodeStub chaincodeStub) {
-        log.info(createConspicuousString("INIT"));
+        if (LogPolicy.isEnabled(INVOCATION, Level.INFO)) {
+            log.info(createConspicuousString("INIT"));
+        }
         return makeInvocation(chaincodeStub).performInit();
     }
 
     // Called when invoking the Chaincode
     @Override
     public Response invoke(ChaincodeStub chaincodeStub) {
-        log.info(createConspicuousString("INVOCATION"));
+        if (LogPolicy.isEnabled(INVOCATION, Level.INFO)) {
+            log.info(createConspicuousString("INVOCATION"));
+        }
+        long startNanos = System.nanoTime();
         Invocation invocation = makeInvocation(chaincodeStub);
         Response result = invocation.performInvocation();
-        String payloadStr = result.getPayload() == null ? "" : result.getStringPayload();
-        log.info("Result of invocation: payload = {}, message = {}", payloadStr, result.getMessage());
+        recordInvocation(chaincodeStub, invocation, result, startNanos);
+        if (LogPolicy.isEnabled(RESULT, Level.INFO)) {
+            log.info("Result of invocation: payload = {}, message = {}", LogPolicy.truncate(result.getPayload()),
+                LogPolicy.truncate(result.getMessage()));
+        }
         return result;
     }
 
+    private static void recordInvocation(ChaincodeStub chaincodeStub, Invocation invocation, Response result,
+        long startNanos) {
+        long argChars = 0;
+        for (String param : chaincodeStub.getParameters()) {
+            argChars += param.length();
+        }
+        long responseSize = (result.getMessage() == null ? 0 : result.getMessage().length())
+            + (result.getPayload() == null ? 0 : result.getPayload().length);
+        ChaincodeMetrics.recordInvocation(CcFunction.fromString(chaincodeStub.getFunction()), startNanos, argChars,
+            responseSize, invocation.isFailed());
+    }
+
     private static String createConspicuousString(String s) {
         return "\n\n================ " + s + " ================\n\n";
     }
 
     public static void main(String[] args) {
+        ChaincodeMetrics.startPeriodicDump();
         new SkeletonCC().start(args);
     }
 }
@@ -0,0 +1,85 @@
+package org.easteregg.chaincode;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static shared.GlobalConfig.STORED_EGG_KEY_PREFIX;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import lombok.Value;
+import org.json.JSONException;
+import org.json.JSONObject;
+import shared.GlobalConfig.EggEncoding;
+
+/*
+ * An egg that was rendered for one creator and stored on the ledger by storeEgg, so that getStoredEgg can read it
+ * back instead of rendering it again. The record holds the version of the renderer and the metrics the egg was drawn
+ * with; a record of another version or with other metrics is out of date and is treated as missing.
+ * The hash lets clients compare eggs without comparing the eggs themselves.
+ *
+ * Records live under keys starting with KEY_PREFIX, which the test variable functions refuse to write.
+ */
+@Value
+class StoredEgg {
+
+    // Increase whenever a change to EasterEggBuilder changes the eggs it draws, so stored eggs are rendered again
+    static final int RENDER_VERSION = 1;
+    static final String KEY_PREFIX = STORED_EGG_KEY_PREFIX;
+
+    int version;
+    String metrics;
+    String hash;
+    String egg;
+
+    static String key(String commonName, EggEncoding encoding) {
+        return KEY_PREFIX + encoding.getName() + "~" + commonName;
+    }
+
+    static StoredEgg of(String egg, EggMetrics eggMetrics) {
+        return new StoredEgg(RENDER_VERSION, describe(eggMetrics), sha256(egg), egg);
+    }
+
+    // Returns null for a missing or unreadable record
+    static StoredEgg fromJson(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            JSONObject record = new JSONObject(json);
+            return new StoredEgg(record.getInt("version"), record.getString("metrics"), record.getString("hash"),
+                record.getString("egg"));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    JSONObject toJson() {
+        return new JSONObject()
+            .put("version", version)
+            .put("metrics", metrics)
+            .put("hash", hash)
+            .put("egg", egg);
+    }
+
+    boolean isCurrent(EggMetrics eggMetrics) {
+        return version == RENDER_VERSION && metrics.equals(describe(eggMetrics));
+    }
+
+    private static String describe(EggMetrics eggMetrics) {
+        return eggMetrics.getHorizontalRadius() + "x" + eggMetrics.getVerticalRadius()
+            + "@" + eggMetrics.getCenterXPoint() + "," + eggMetrics.getCenterYPoint()
+            + "/" + eggMetrics.getColor() + "/" + eggMetrics.getBackgroundColor();
+    }
+
+    private static String sha256(String egg) {
+        try {
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(egg.getBytes(UTF_8))) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
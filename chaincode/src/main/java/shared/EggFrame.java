@@ -0,0 +1,226 @@
+package shared;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/*
+ * Compact binary representation of an egg, written by the chaincode and read by the clients.
+ *
+ * Layout, multi-byte values are big-endian:
+ *   byte   VERSION
+ *   byte   flags; FLAG_RUN_LENGTH is set when the pixels are run-length encoded
+ *   short  width (unsigned)
+ *   short  height (unsigned)
+ *   byte   palette size n
+ *   byte   palette index of the background color
+ *   n      ANSI background color code of every palette entry, e.g. 101 for bright red
+ *   ...    the pixels row by row, as palette indices of just enough bits to address n entries, packed most
+ *          significant bit first. When run-length encoded, every run is a palette index followed by
+ *          RUN_LENGTH_BITS bits holding the length of the run minus one.
+ *
+ * The encoder picks whichever of the two pixel layouts is smaller.
+ */
+public final class EggFrame {
+
+    public static final int VERSION = 1;
+    public static final int FLAG_RUN_LENGTH = 1;
+    private static final int RUN_LENGTH_BITS = 6;
+    private static final int MAX_RUN_LENGTH = 1 << RUN_LENGTH_BITS;
+    private static final int HEADER_SIZE = 8;
+
+    private final int width;
+    private final int height;
+    private final int[] palette;
+    private final int backgroundIndex;
+    private final byte[] pixels;
+
+    // pixels holds one palette index per pixel, row by row
+    public EggFrame(int width, int height, int[] palette, int backgroundIndex, byte[] pixels) {
+        if (width < 0 || width > 0xFFFF || height < 0 || height > 0xFFFF || pixels.length != width * height) {
+            throw new IllegalArgumentException("Invalid egg frame dimensions " + width + "x" + height);
+        }
+        if (palette.length == 0 || palette.length > 0xFF || backgroundIndex < 0 || backgroundIndex >= palette.length) {
+            throw new IllegalArgumentException("Invalid egg frame palette of size " + palette.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.palette = palette.clone();
+        this.backgroundIndex = backgroundIndex;
+        this.pixels = pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBackgroundIndex() {
+        return backgroundIndex;
+    }
+
+    public int getPaletteCode(int paletteIndex) {
+        return palette[paletteIndex];
+    }
+
+    public int getPixel(int xCoordinate, int yCoordinate) {
+        return pixels[yCoordinate * width + xCoordinate];
+    }
+
+    public byte[] encode() {
+        int bitsPerPixel = bitsPerPixel(palette.length);
+        byte[] packedPixels = packPixels(bitsPerPixel);
+        byte[] packedRuns = packRuns(bitsPerPixel);
+        boolean runLength = packedRuns.length < packedPixels.length;
+        byte[] body = runLength ? packedRuns : packedPixels;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + palette.length + body.length);
+        buffer.put((byte) VERSION)
+            .put((byte) (runLength ? FLAG_RUN_LENGTH : 0))
+            .putShort((short) width)
+            .putShort((short) height)
+            .put((byte) palette.length)
+            .put((byte) backgroundIndex);
+        for (int code : palette) {
+            buffer.put((byte) code);
+        }
+        return buffer.put(body).array();
+    }
+
+    public static EggFrame decode(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported egg frame version " + version);
+            }
+            boolean runLength = (buffer.get() & FLAG_RUN_LENGTH) != 0;
+            int width = buffer.getShort() & 0xFFFF;
+            int height = buffer.getShort() & 0xFFFF;
+            int[] palette = new int[buffer.get() & 0xFF];
+            int backgroundIndex = buffer.get() & 0xFF;
+            for (int i = 0; i < palette.length; i++) {
+                palette[i] = buffer.get() & 0xFF;
+            }
+            BitReader reader = new BitReader(bytes, buffer.position());
+            int bitsPerPixel = bitsPerPixel(palette.length);
+            byte[] pixels = runLength
+                ? unpackRuns(reader, bitsPerPixel, palette.length, width * height)
+                : unpackPixels(reader, bitsPerPixel, palette.length, width * height);
+            return new EggFrame(width, height, palette, backgroundIndex, pixels);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated egg frame header", e);
+        }
+    }
+
+    private static int bitsPerPixel(int paletteSize) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    private byte[] packPixels(int bitsPerPixel) {
+        BitWriter writer = new BitWriter();
+        for (byte pixel : pixels) {
+            writer.write(pixel, bitsPerPixel);
+        }
+        return writer.toByteArray();
+    }
+
+    private byte[] packRuns(int bitsPerPixel) {
+        BitWriter writer = new BitWriter();
+        int runStart = 0;
+        while (runStart < pixels.length) {
+            int runEnd = runStart + 1;
+            while (runEnd < pixels.length && runEnd - runStart < MAX_RUN_LENGTH && pixels[runEnd] == pixels[runStart]) {
+                runEnd++;
+            }
+            writer.write(pixels[runStart], bitsPerPixel);
+            writer.write(runEnd - runStart - 1, RUN_LENGTH_BITS);
+            runStart = runEnd;
+        }
+        return writer.toByteArray();
+    }
+
+    private static byte[] unpackPixels(BitReader reader, int bitsPerPixel, int paletteSize, int nPixels) {
+        byte[] pixels = new byte[nPixels];
+        for (int i = 0; i < nPixels; i++) {
+            pixels[i] = readPaletteIndex(reader, bitsPerPixel, paletteSize);
+        }
+        return pixels;
+    }
+
+    private static byte[] unpackRuns(BitReader reader, int bitsPerPixel, int paletteSize, int nPixels) {
+        byte[] pixels = new byte[nPixels];
+        int position = 0;
+        while (position < nPixels) {
+            byte pixel = readPaletteIndex(reader, bitsPerPixel, paletteSize);
+            int runLength = reader.read(RUN_LENGTH_BITS) + 1;
+            if (position + runLength > nPixels) {
+                throw new IllegalArgumentException("Egg frame run exceeds the frame");
+            }
+            for (int i = 0; i < runLength; i++) {
+                pixels[position++] = pixel;
+            }
+        }
+        return pixels;
+    }
+
+    // Unless the palette size is a power of two, the bits of a pixel can hold an index past the palette
+    private static byte readPaletteIndex(BitReader reader, int bitsPerPixel, int paletteSize) {
+        int paletteIndex = reader.read(bitsPerPixel);
+        if (paletteIndex >= paletteSize) {
+            throw new IllegalArgumentException("Egg frame pixel " + paletteIndex + " is not in the palette of size "
+                + paletteSize);
+        }
+        return (byte) paletteIndex;
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int currentByte;
+        private int nBits;
+
+        void write(int value, int bits) {
+            for (int bit = bits - 1; bit >= 0; bit--) {
+                currentByte = (currentByte << 1) | ((value >>> bit) & 1);
+                if (++nBits == 8) {
+                    out.write(currentByte);
+                    currentByte = 0;
+                    nBits = 0;
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            if (nBits > 0) {
+                out.write(currentByte << (8 - nBits));
+                currentByte = 0;
+                nBits = 0;
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] bytes;
+        private int bitPosition;
+
+        BitReader(byte[] bytes, int bytePosition) {
+            this.bytes = bytes;
+            this.bitPosition = bytePosition * 8;
+        }
+
+        int read(int bits) {
+            if (bitPosition + bits > bytes.length * 8) {
+                throw new IllegalArgumentException("Truncated egg frame pixels");
+            }
+            int value = 0;
+            for (int i = 0; i < bits; i++, bitPosition++) {
+                value = (value << 1) | ((bytes[bitPosition >>> 3] >>> (7 - (bitPosition & 7))) & 1);
+            }
+            return value;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package shared;
 
 import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
-import org.apache.commons.lang3.StringUtils;
 
 /*
  * This class contains configuration data shared by both the clients and the chaincode
@@ -12,23 +14,106 @@ import org.apache.commons.lang3.StringUtils;
 public class GlobalConfig {
 
     public static final String COMPOSITE_EVENT = "compositeEvent";
+    public static final String COMPOSITE_EVENT_BINARY = "compositeEventBinary";
+    // Limits of the batch and range functions, checked by the chaincode; clients should split larger requests
+    public static final int MAX_BATCH_KEYS = 1000;
+    public static final int MAX_BATCH_ARG_LENGTH = 1024 * 1024;
+    public static final int MAX_RANGE_PAGE_SIZE = 1000;
+    // Keys of the eggs stored by storeEgg, which the test variable functions refuse to write
+    public static final String STORED_EGG_KEY_PREFIX = "egg~";
+
+    // Whether a chaincode function changes the ledger. Clients evaluate READ functions as a query on a single peer,
+    // which is neither ordered nor committed; the chaincode fails a READ function that tries to write.
+    public enum Access {
+        READ,
+        WRITE
+    }
 
     @Getter
     @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
     public enum CcFunction {
-        QUERY_HISTORY("queryHistory", 1),
-        QUERY_TEST_VAR("queryTestVar", 1),
-        SET_TEST_VAR("setTestVar", 2),
-        GET_EGG("getEgg", 0);
+        QUERY_HISTORY("queryHistory", 1, Access.READ),
+        // Args: key, page size, bookmark, from and to as epoch milliseconds; pass empty strings for no bookmark/limit
+        QUERY_HISTORY_PAGE("queryHistoryPage", 5, Access.READ),
+        QUERY_TEST_VAR("queryTestVar", 1, Access.READ),
+        SET_TEST_VAR("setTestVar", 2, Access.WRITE),
+        // Args: a JSON array of keys; returns a JSON object with the value of every key, null when missing
+        BATCH_QUERY_TEST_VARS("batchQueryTestVars", 1, Access.READ),
+        // Args: a JSON object of keys and their new string values
+        BATCH_SET_TEST_VARS("batchSetTestVars", 1, Access.WRITE),
+        // Args: start key (inclusive), end key (exclusive), page size, bookmark (empty for the first page)
+        QUERY_TEST_VAR_RANGE("queryTestVarRange", 4, Access.READ),
+        GET_EGG("getEgg", 0, Access.READ),
+        GET_EGG_ENCODED("getEggEncoded", 1, Access.READ),
+        // Args: horizontal radius, vertical radius, EggEncoding
+        GET_EGG_SIZED("getEggSized", 3, Access.READ),
+        // Returns a shared.EggFrame in the payload of the response
+        GET_EGG_FRAME("getEggFrame", 0, Access.READ),
+        // Args: EggEncoding; returns {"stored", "version", "metrics", "hash", "egg"} with the caller's egg as stored by
+        // STORE_EGG, or freshly rendered with stored = false
+        GET_STORED_EGG("getStoredEgg", 1, Access.READ),
+        // Args: EggEncoding; stores the caller's egg on the ledger for GET_STORED_EGG and returns its hash
+        STORE_EGG("storeEgg", 1, Access.WRITE),
+        // Returns the metrics of the queried peer as JSON; every peer answers differently, so only query it
+        GET_METRICS("getMetrics", 0, Access.READ);
+
+        // Looked up on every invocation, so resolve names through a map instead of scanning values()
+        private static final Map<String, CcFunction> BY_NAME = Arrays.stream(CcFunction.values())
+            .collect(Collectors.toMap(CcFunction::getName, Function.identity()));
 
         private final String name;
         private final int nArgs;
+        private final Access access;
 
         public static CcFunction fromString(String name) {
-            return Arrays.stream(CcFunction.values())
-                .filter(f -> StringUtils.equals(f.getName(), name))
+            return name == null ? null : BY_NAME.get(name);
+        }
+    }
+
+    // The ways an egg can be written out as ANSI text; all but HALF_BLOCK look the same on a terminal
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public enum EggEncoding {
+        // Every cell sets and resets its own color
+        PLAIN("plain"),
+        // A color is only set when it changes within a row, and reset at the end of the row
+        RUN_LENGTH("runLength"),
+        // Twice the vertical resolution: every cell is a half block showing two pixels, one in the foreground and one
+        // in the background color, switched like RUN_LENGTH. Needs a terminal that can show \u2580 and \u2584
+        HALF_BLOCK("halfBlock");
+
+        private final String name;
+
+        public static EggEncoding fromString(String name) {
+            return Arrays.stream(EggEncoding.values())
+                .filter(e -> e.getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown egg encoding: " + name));
+        }
+    }
+
+    // The ways the composite event of a transaction can be written; listeners tell them apart by the event name
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public enum EventEncoding {
+        JSON("json", COMPOSITE_EVENT),
+        BINARY("binary", COMPOSITE_EVENT_BINARY);
+
+        private final String name;
+        private final String eventName;
+
+        public static EventEncoding fromString(String name) {
+            return Arrays.stream(EventEncoding.values())
+                .filter(e -> e.getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown event encoding: " + name));
+        }
+
+        public static EventEncoding fromEventName(String eventName) {
+            return Arrays.stream(EventEncoding.values())
+                .filter(e -> e.getEventName().equals(eventName))
                 .findFirst()
-                .orElse(null);
+                .orElseThrow(() -> new IllegalArgumentException("Not a composite event: " + eventName));
         }
     }
 }
@@ -0,0 +1,105 @@
+package org.easteregg.chaincode;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+import shared.CompositeEvent;
+import shared.GlobalConfig.EventEncoding;
+
+public class CompositeEventWriterTest {
+
+    @Test
+    public void jsonEventShouldMatchTheJsonLibrary() {
+        JSONObject contents = new JSONObject().put("text", "\"quoted\" \\ tab\t é 🥚");
+        CompositeEventWriter writer = new CompositeEventWriter(EventEncoding.JSON, 1024).begin("tx1", 1000);
+        writer.append("eggLaid", contents.toString());
+        writer.append("eggFound", "{}");
+
+        JSONAssert.assertEquals("{\"txId\":\"tx1\",\"txTimestamp\":1000,\"events\":[{\"eggLaid\":" + contents
+            + "},{\"eggFound\":{}}]}", new String(writer.finish(), UTF_8), JSONCompareMode.STRICT);
+    }
+
+    @Test
+    public void eventsBeyondTheCapShouldBeDroppedInOrder() {
+        CompositeEventWriter writer = new CompositeEventWriter(EventEncoding.JSON, 256).begin("tx1", 0);
+        writer.append("small", "1");
+        writer.append("large", "\"" + new String(new char[200]).replace('\0', 'x') + "\"");
+        writer.append("small", "2");
+        byte[] event = writer.finish();
+
+        assertThat(event.length).isLessThanOrEqualTo(256);
+        JSONAssert.assertEquals("{\"txId\":\"tx1\",\"txTimestamp\":0,\"events\":[{\"small\":1}],\"droppedEvents\":2}",
+            new String(event, UTF_8), JSONCompareMode.STRICT);
+    }
+
+    @Test
+    public void writerShouldBeClearedForTheNextTransaction() {
+        CompositeEventWriter writer = new CompositeEventWriter(EventEncoding.JSON, 1024).begin("tx1", 0);
+        writer.append("first", "1");
+        writer.finish();
+        writer.begin("tx2", 0).append("second", "2");
+        JSONAssert.assertEquals("{\"txId\":\"tx2\",\"txTimestamp\":0,\"events\":[{\"second\":2}]}",
+            new String(writer.finish(), UTF_8), JSONCompareMode.STRICT);
+    }
+
+    @Test
+    public void binaryEventShouldHoldEveryEvent() {
+        CompositeEventWriter writer = new CompositeEventWriter(EventEncoding.BINARY, 1024).begin("tx1", 1000);
+        writer.append("eggLaid", "{\"text\":\"é\"}");
+        writer.append("eggFound", "{}");
+
+        ByteBuffer event = ByteBuffer.wrap(writer.finish());
+        assertThat(event.get()).isEqualTo((byte) CompositeEvent.BINARY_VERSION);
+        assertThat(readString(event, event.getShort())).isEqualTo("tx1");
+        assertThat(event.getLong()).isEqualTo(1000);
+        assertThat(event.getInt()).isEqualTo(2);
+        assertThat(event.getInt()).isEqualTo(0);
+        assertThat(readString(event, event.getShort())).isEqualTo("eggLaid");
+        assertThat(readString(event, event.getInt())).isEqualTo("{\"text\":\"é\"}");
+        assertThat(readString(event, event.getShort())).isEqualTo("eggFound");
+        assertThat(readString(event, event.getInt())).isEqualTo("{}");
+        assertThat(event.hasRemaining()).isFalse();
+    }
+
+    @Test
+    public void clientsShouldReadBackEitherEncoding() {
+        for (EventEncoding encoding : EventEncoding.values()) {
+            CompositeEventWriter writer = new CompositeEventWriter(encoding, 256).begin("tx1", 1000);
+            writer.append("eggLaid", "{\"text\":\"é 🥚\"}");
+            writer.append("large", "\"" + new String(new char[200]).replace('\0', 'x') + "\"");
+            writer.append("eggFound", "{}");
+
+            CompositeEvent event = CompositeEvent.decode(encoding.getEventName(), writer.finish());
+            assertThat(event.getTxId()).isEqualTo("tx1");
+            assertThat(event.getTxTimestamp()).isEqualTo(1000);
+            assertThat(event.getEvents()).hasSize(1);
+            assertThat(event.getEvents().get(0).getName()).isEqualTo("eggLaid");
+            JSONAssert.assertEquals("{\"text\":\"é 🥚\"}", event.getEvents().get(0).getContentsJson(),
+                JSONCompareMode.STRICT);
+            assertThat(event.getNDroppedEvents()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void truncatedBinaryEventShouldBeRefused() {
+        CompositeEventWriter writer = new CompositeEventWriter(EventEncoding.BINARY, 1024).begin("tx1", 0);
+        writer.append("eggFound", "{}");
+        byte[] event = writer.finish();
+        byte[] truncated = new byte[event.length - 1];
+        System.arraycopy(event, 0, truncated, 0, truncated.length);
+        assertThatThrownBy(() -> CompositeEvent.decode(EventEncoding.BINARY.getEventName(), truncated))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
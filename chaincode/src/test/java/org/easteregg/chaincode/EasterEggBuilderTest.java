@@ -0,0 +1,85 @@
+package org.easteregg.chaincode;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import shared.GlobalConfig.EggEncoding;
+
+public class EasterEggBuilderTest {
+
+    private static final EggMetrics LARGE_EGG_METRICS = new EggMetrics(300, 150, 300, 150, Color.WHITE, Color.GREEN);
+
+    @Test
+    public void parallelRenderShouldMatchSingleThreadedRender() {
+        int nCells = (LARGE_EGG_METRICS.getFrameWidth() + 1) * (LARGE_EGG_METRICS.getFrameHeight() + 1);
+        assertThat(nCells).isGreaterThanOrEqualTo(EasterEggBuilder.PARALLEL_THRESHOLD_CELLS);
+        EasterEggBuilder builder = new EasterEggBuilder(LARGE_EGG_METRICS, 27, 0.7);
+        for (EggEncoding encoding : EggEncoding.values()) {
+            assertThat(builder.build(encoding, true)).isEqualTo(builder.build(encoding, false));
+        }
+    }
+
+    @Test
+    public void parallelRenderShouldHandleFewerRowsThanStripes() {
+        EggMetrics flatEggMetrics = new EggMetrics(40, 1, 40, 1, Color.WHITE, Color.GREEN);
+        EasterEggBuilder builder = new EasterEggBuilder(flatEggMetrics, 27, 0.7);
+        assertThat(builder.build(EggEncoding.RUN_LENGTH, true)).isEqualTo(builder.build(EggEncoding.RUN_LENGTH, false));
+    }
+
+    @Test
+    public void halfBlockEggShouldShowTwoRowsOfTheDoubleResolutionEggPerLine() {
+        EggMetrics eggMetrics = new EggMetrics(30, 22, 50, 20, Color.WHITE, Color.GREEN);
+        EasterEggBuilder builder = new EasterEggBuilder(eggMetrics, 27, 0.7);
+        String halfBlockEgg = builder.build(EggEncoding.HALF_BLOCK);
+        List<List<Integer>> pixels =
+            toPixels(new EasterEggBuilder(eggMetrics.getHalfBlockMetrics(), 27, 0.7).build(EggEncoding.PLAIN), false);
+
+        List<List<Integer>> halfBlockPixels = toPixels(halfBlockEgg, true);
+        assertThat(halfBlockPixels).hasSize(2 * (eggMetrics.getFrameHeight() + 1));
+        // The last line has no lower row to show, so its lower halves are background
+        assertThat(halfBlockPixels.subList(0, pixels.size())).isEqualTo(pixels);
+        assertThat(halfBlockPixels.get(pixels.size())).containsOnly(Color.GREEN.getBackgroundCode());
+        assertThat(halfBlockEgg.getBytes(UTF_8).length).isLessThan(builder.build(EggEncoding.PLAIN).length());
+    }
+
+    // The background code of every pixel, row by row; a half block line is split into its upper and lower row
+    private static List<List<Integer>> toPixels(String ansi, boolean halfBlock) {
+        List<List<Integer>> rows = new ArrayList<>();
+        List<Integer> upper = new ArrayList<>();
+        List<Integer> lower = new ArrayList<>();
+        int foreground = 0;
+        int background = 0;
+        for (int i = 0; i < ansi.length(); i++) {
+            char c = ansi.charAt(i);
+            if (c == '\u001b') {
+                int end = ansi.indexOf('m', i);
+                for (String code : ansi.substring(i + 2, end).split(";")) {
+                    int number = Integer.parseInt(code);
+                    if (number >= 100) {
+                        background = number;
+                    } else if (number >= 90) {
+                        foreground = number + 10;
+                    }
+                }
+                i = end;
+            } else if (c == '\n') {
+                rows.add(upper);
+                if (halfBlock) {
+                    rows.add(lower);
+                }
+                upper = new ArrayList<>();
+                lower = new ArrayList<>();
+            } else if (c == ' ') {
+                upper.add(background);
+                lower.add(background);
+            } else {
+                upper.add(c == '\u2580' ? foreground : background);
+                lower.add(c == '\u2580' ? background : foreground);
+            }
+        }
+        return rows;
+    }
+}
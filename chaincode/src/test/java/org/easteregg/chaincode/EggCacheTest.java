@@ -0,0 +1,56 @@
+package org.easteregg.chaincode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import shared.GlobalConfig.EggEncoding;
+
+public class EggCacheTest {
+
+    private static final EggMetrics EGG_METRICS = new EggMetrics(3, 2, 3, 2, Color.WHITE, Color.GREEN);
+
+    private static EggCache.Key key(double colorFactor) {
+        return new EggCache.Key(EGG_METRICS, colorFactor, 1.0, EggEncoding.PLAIN);
+    }
+
+    @Test
+    public void shouldReturnCachedEggOnHit() {
+        EggCache eggCache = new EggCache(10, 1000);
+        assertThat(eggCache.get(key(15), () -> "egg")).isEqualTo("egg");
+        assertThat(eggCache.get(key(15), () -> "other egg")).isEqualTo("egg");
+        assertThat(eggCache.getHits()).isEqualTo(1);
+        assertThat(eggCache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedWhenFull() {
+        EggCache eggCache = new EggCache(2, 1000);
+        eggCache.get(key(15), () -> "a");
+        eggCache.get(key(16), () -> "b");
+        eggCache.get(key(15), () -> "a");
+        eggCache.get(key(17), () -> "c");
+        assertThat(eggCache.getSize()).isEqualTo(2);
+        assertThat(eggCache.getEvictions()).isEqualTo(1);
+        assertThat(eggCache.get(key(15), () -> "new a")).isEqualTo("a");
+        assertThat(eggCache.get(key(16), () -> "new b")).isEqualTo("new b");
+    }
+
+    @Test
+    public void shouldStayWithinByteLimit() {
+        EggCache eggCache = new EggCache(10, 10);
+        eggCache.get(key(15), () -> "aaa");
+        eggCache.get(key(16), () -> "bbb");
+        assertThat(eggCache.getBytes()).isEqualTo(6);
+        assertThat(eggCache.getEvictions()).isEqualTo(1);
+        eggCache.get(key(17), () -> "this egg is too large to cache");
+        assertThat(eggCache.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void renderedAndCachedEggsShouldBeIdentical() {
+        EggCache eggCache = new EggCache(10, 1_000_000);
+        EasterEggBuilder builder = new EasterEggBuilder(EGG_METRICS, 20, 0.5);
+        String rendered = eggCache.get(key(20), builder::build);
+        assertThat(eggCache.get(key(20), builder::build)).isSameAs(rendered).isEqualTo(builder.build());
+    }
+}
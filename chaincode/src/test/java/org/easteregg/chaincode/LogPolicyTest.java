@@ -0,0 +1,52 @@
+package org.easteregg.chaincode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.easteregg.chaincode.LogPolicy.Category.INVOCATION;
+import static org.easteregg.chaincode.LogPolicy.Category.LEDGER;
+import static org.easteregg.chaincode.LogPolicy.Category.RESULT;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.event.Level;
+
+public class LogPolicyTest {
+
+    @After
+    public void resetPolicy() {
+        LogPolicy.reset();
+    }
+
+    @Test
+    public void categoriesShouldHaveTheirOwnLevel() {
+        LogPolicy.configure("*=warn,ledger=debug,result=off", null);
+        assertThat(LogPolicy.isEnabled(LEDGER, Level.DEBUG)).isTrue();
+        assertThat(LogPolicy.isEnabled(LEDGER, Level.TRACE)).isFalse();
+        assertThat(LogPolicy.isEnabled(INVOCATION, Level.INFO)).isFalse();
+        assertThat(LogPolicy.isEnabled(INVOCATION, Level.WARN)).isTrue();
+        assertThat(LogPolicy.isEnabled(RESULT, Level.ERROR)).isFalse();
+    }
+
+    @Test
+    public void sampledCategoryShouldLogOneInEveryN() {
+        LogPolicy.configure("ledger=info/3", null);
+        int nEnabled = 0;
+        for (int i = 0; i < 9; i++) {
+            nEnabled += LogPolicy.isEnabled(LEDGER, Level.INFO) ? 1 : 0;
+        }
+        assertThat(nEnabled).isEqualTo(3);
+        assertThat(LogPolicy.isEnabled(LEDGER, Level.DEBUG)).isFalse();
+    }
+
+    @Test
+    public void longPayloadsShouldBeTruncated() {
+        LogPolicy.configure(null, 4);
+        assertThat(LogPolicy.truncate("egg")).isEqualTo("egg");
+        assertThat(LogPolicy.truncate("easter egg")).isEqualTo("east... (10 chars)");
+        assertThat(LogPolicy.truncate("easter egg".getBytes())).isEqualTo("east... (10 bytes)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownCategoryShouldBeRefused() {
+        LogPolicy.configure("laundry=info", null);
+    }
+}
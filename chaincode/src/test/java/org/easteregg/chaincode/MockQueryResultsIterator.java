@@ -4,12 +4,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import lombok.Getter;
 import org.hyperledger.fabric.shim.ledger.KeyModification;
 import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
 
 final class MockQueryResultsIterator implements QueryResultsIterator<KeyModification> {
 
     private final List<KeyModification> resultList = new ArrayList<>();
+    @Getter
+    private boolean closed;
 
     MockQueryResultsIterator(KeyModification... modifications) {
         super();
@@ -23,5 +26,6 @@ final class MockQueryResultsIterator implements QueryResultsIterator<KeyModifica
 
     @Override
     public void close() {
+        closed = true;
     }
 }
@@ -0,0 +1,76 @@
+package org.easteregg.chaincode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.easteregg.chaincode.global.TestConstants.TEST_CREATOR;
+import static shared.GlobalConfig.CcFunction.QUERY_TEST_VAR;
+import static shared.GlobalConfig.CcFunction.SET_TEST_VAR;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.easteregg.chaincode.simulator.LedgerSimulator;
+import org.easteregg.chaincode.simulator.LedgerSimulator.ValidationCode;
+import org.easteregg.chaincode.simulator.SimulatedTransaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Runs the chaincode on a LedgerSimulator instead of a mocked stub
+public class SkeletonCCSimulationTest {
+
+    private final SkeletonCC skeletonCC = new SkeletonCC();
+    private final LedgerSimulator ledger = new LedgerSimulator();
+
+    @Before
+    public void silenceLogging() {
+        LogPolicy.configure("*=off", null);
+    }
+
+    @After
+    public void resetLogging() {
+        LogPolicy.reset();
+    }
+
+    @Test
+    public void readOfKeyWrittenSinceShouldConflict() {
+        ledger.execute(skeletonCC::invoke, TEST_CREATOR, SET_TEST_VAR.getName(), "trainName", "redDevil");
+        SimulatedTransaction query = ledger.newTransaction(TEST_CREATOR, QUERY_TEST_VAR.getName(), "trainName");
+        assertThat(skeletonCC.invoke(query.getStub()).getMessage()).isEqualTo("redDevil");
+        ledger.execute(skeletonCC::invoke, TEST_CREATOR, SET_TEST_VAR.getName(), "trainName", "blueArrow");
+
+        assertThat(ledger.commit(query)).isEqualTo(ValidationCode.MVCC_READ_CONFLICT);
+        assertThat(ledger.getCommittedStringState("trainName")).isEqualTo("blueArrow");
+    }
+
+    @Test
+    public void concurrentInvocationsShouldAllBeValidatedOnce() throws Exception {
+        int nThreads = 4;
+        int nInvocationsPerThread = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < nThreads; thread++) {
+            String key = "train" + (thread % 2);
+            boolean writer = thread < 2;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < nInvocationsPerThread; i++) {
+                    if (writer) {
+                        ledger.execute(skeletonCC::invoke, TEST_CREATOR, SET_TEST_VAR.getName(), key, "v" + i);
+                    } else {
+                        ledger.execute(skeletonCC::invoke, TEST_CREATOR, QUERY_TEST_VAR.getName(), key);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        long nValidated = ledger.getCount(ValidationCode.VALID) + ledger.getCount(ValidationCode.MVCC_READ_CONFLICT);
+        assertThat(nValidated).isEqualTo(nThreads * nInvocationsPerThread);
+        assertThat(ledger.getCount(ValidationCode.VALID)).isGreaterThanOrEqualTo(2 * nInvocationsPerThread);
+        assertThat(ledger.getCommittedStringState("train0")).isEqualTo("v" + (nInvocationsPerThread - 1));
+    }
+}
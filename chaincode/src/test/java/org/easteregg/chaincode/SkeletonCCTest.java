@@ -2,28 +2,55 @@ package org.easteregg.chaincode;
 
 
 import lombok.extern.slf4j.Slf4j;
+import org.easteregg.exception.BlockchainDataNotFoundException;
+import shared.EggFrame;
+import shared.GlobalConfig;
+import shared.GlobalConfig.EggEncoding;
 import org.hyperledger.fabric.shim.Chaincode;
 import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.QueryResponseMetadata;
 import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
 import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
+import org.slf4j.event.Level;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static org.easteregg.chaincode.global.TestConstants.TEST_CREATOR;
 import static org.easteregg.chaincode.SkeletonCC.*;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.*;
+import static shared.GlobalConfig.CcFunction.BATCH_QUERY_TEST_VARS;
+import static shared.GlobalConfig.CcFunction.BATCH_SET_TEST_VARS;
+import static shared.GlobalConfig.CcFunction.GET_EGG;
+import static shared.GlobalConfig.CcFunction.GET_EGG_ENCODED;
+import static shared.GlobalConfig.CcFunction.GET_EGG_FRAME;
+import static shared.GlobalConfig.CcFunction.GET_EGG_SIZED;
+import static shared.GlobalConfig.CcFunction.GET_METRICS;
+import static shared.GlobalConfig.CcFunction.GET_STORED_EGG;
 import static shared.GlobalConfig.CcFunction.QUERY_HISTORY;
+import static shared.GlobalConfig.CcFunction.QUERY_HISTORY_PAGE;
+import static shared.GlobalConfig.CcFunction.QUERY_TEST_VAR;
+import static shared.GlobalConfig.CcFunction.QUERY_TEST_VAR_RANGE;
+import static shared.GlobalConfig.CcFunction.SET_TEST_VAR;
+import static shared.GlobalConfig.CcFunction.STORE_EGG;
 
 @Slf4j
 @RunWith(MockitoJUnitRunner.class)
@@ -112,6 +139,43 @@ public class SkeletonCCTest {
         assertFailureResponse(skeletonCC.init(chaincodeStub), Invocation.INCORRECT_N_ARGS_MSG);
     }
 
+    @Test
+    public void initShouldApplyLogSettings() {
+        given(chaincodeStub.getParameters()).willReturn(Arrays.asList("log=result=off", "logMaxPayload=16"));
+        setupMockInvocation();
+        try {
+            assertSuccessResponse(skeletonCC.init(chaincodeStub));
+            assertThat(LogPolicy.isEnabled(LogPolicy.Category.RESULT, Level.ERROR)).isFalse();
+            assertThat(LogPolicy.truncate(new String(new char[20]))).hasSize(16 + "... (20 chars)".length());
+        } finally {
+            LogPolicy.reset();
+        }
+    }
+
+    @Test
+    public void initShouldRefuseUnknownSettings() {
+        given(chaincodeStub.getParameters()).willReturn(Collections.singletonList("laundry=now"));
+        setupMockInvocation();
+        assertFailureResponse(skeletonCC.init(chaincodeStub), Invocation.UNKNOWN_SETTING_MSG + "laundry");
+    }
+
+    @Test
+    public void creatorShouldBeReadOnceAndParsedOnlyOnMiss() {
+        given(chaincodeStub.getParameters()).willReturn(Collections.emptyList());
+        setupMockInvocation();
+        skeletonCC.invoke(chaincodeStub);
+        verify(chaincodeStub, times(1)).getCreator();
+
+        CreatorIdentityCache cache = new CreatorIdentityCache(1);
+        CreatorIdentityCache.Identity identity = CreatorIdentityCache.Identity.fromCommonName("Egg000");
+        assertThat(cache.get(TEST_CREATOR.clone(), creator -> identity)).isSameAs(identity);
+        assertThat(cache.get(TEST_CREATOR.clone(), creator -> null)).isSameAs(identity);
+        assertThat(cache.get(new byte[]{1}, creator -> identity)).isSameAs(identity);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+    }
+
     // Invoke tests
     @Test
     public void invokeShouldReturnErrorForIncorrectFunctionName() {
@@ -120,6 +184,221 @@ public class SkeletonCCTest {
         invokeAndAssertFailure(functionName + Invocation.UNSUPPORTED_FUNCTION_MSG);
     }
 
+    @Test
+    public void invokeShouldReturnErrorForIncorrectNumberOfArguments() {
+        doReturn(SET_TEST_VAR.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.singletonList("trainName")).when(chaincodeStub).getParameters();
+        invokeAndAssertFailure(Invocation.INCORRECT_N_ARGS_MSG);
+    }
+
+    // setTestVar/queryTestVar tests
+    @Test
+    public void setTestVarShouldPutState() {
+        doReturn(SET_TEST_VAR.getName()).when(chaincodeStub).getFunction();
+        doReturn(Arrays.asList("trainName", "redDevil")).when(chaincodeStub).getParameters();
+        invokeAndAssertSuccess();
+        verify(chaincodeStub).putStringState("trainName", "redDevil");
+    }
+
+    @Test
+    public void ledgerServiceShouldReadEachKeyOnce() throws BlockchainDataNotFoundException {
+        doReturn("redDevil").when(chaincodeStub).getStringState("trainName");
+        LedgerService ledgerService = new Invocation(chaincodeStub).getLedgerService();
+        assertThat(ledgerService.getStringStateWrapper("trainName")).isEqualTo("redDevil");
+        assertThat(ledgerService.getStringStateWrapper("trainName")).isEqualTo("redDevil");
+        verify(chaincodeStub, times(1)).getStringState("trainName");
+    }
+
+    @Test
+    public void ledgerServiceShouldOnlyFlushChangingWrites() throws BlockchainDataNotFoundException {
+        doReturn("redDevil").when(chaincodeStub).getStringState("trainName");
+        LedgerService ledgerService = new Invocation(chaincodeStub).getLedgerService();
+        long elidedWrites = LedgerService.getElidedWrites();
+
+        ledgerService.getStringStateWrapper("trainName");
+        ledgerService.putStringStateWrapper("trainName", "redDevil");
+        ledgerService.putStringStateWrapper("color", "red");
+        ledgerService.putStringStateWrapper("color", "blue");
+        verify(chaincodeStub, never()).putStringState(anyString(), anyString());
+
+        ledgerService.flushWrites();
+        verify(chaincodeStub, never()).putStringState(eq("trainName"), anyString());
+        verify(chaincodeStub, times(1)).putStringState(eq("color"), anyString());
+        verify(chaincodeStub).putStringState("color", "blue");
+        assertThat(LedgerService.getElidedWrites() - elidedWrites).isEqualTo(2);
+    }
+
+    @Test
+    public void failedFunctionShouldWriteNothing() {
+        doReturn(QUERY_TEST_VAR.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.singletonList("trainName")).when(chaincodeStub).getParameters();
+        Invocation invocation = new Invocation(chaincodeStub);
+        invocation.getLedgerService().putStringStateWrapper("color", "red");
+        assertSuccessResponse(invocation.performInvocation(),
+            new BlockchainDataNotFoundException("trainName").getMessage());
+        verify(chaincodeStub, never()).putStringState(anyString(), anyString());
+    }
+
+    @Test
+    public void queryTestVarShouldReportMissingDataInMessage() {
+        doReturn(QUERY_TEST_VAR.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.singletonList("trainName")).when(chaincodeStub).getParameters();
+        invokeAndAssertSuccess(new BlockchainDataNotFoundException("trainName").getMessage());
+    }
+
+    @Test
+    public void metricsShouldCountInvocationsPerFunction() {
+        ChaincodeMetrics.reset();
+        doReturn(SET_TEST_VAR.getName()).when(chaincodeStub).getFunction();
+        doReturn(Arrays.asList("trainName", "redDevil")).when(chaincodeStub).getParameters();
+        invokeAndAssertSuccess();
+        doReturn(QUERY_TEST_VAR.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.singletonList("trainName")).when(chaincodeStub).getParameters();
+        invokeAndAssertSuccess();
+
+        doReturn(GET_METRICS.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.emptyList()).when(chaincodeStub).getParameters();
+        JSONObject metrics = new JSONObject(invokeAndAssertSuccess().getMessage());
+        JSONObject setTestVar = metrics.getJSONObject("functions").getJSONObject(SET_TEST_VAR.getName());
+        assertThat(setTestVar.getLong("calls")).isEqualTo(1);
+        assertThat(setTestVar.getLong("failures")).isZero();
+        assertThat(setTestVar.getLong("argChars")).isEqualTo("trainNameredDevil".length());
+        assertThat(setTestVar.getJSONObject("latency").getLong("p999Nanos")).isPositive();
+        // The missing key still returns a success response, but counts as a failure
+        assertThat(metrics.getJSONObject("functions").getJSONObject(QUERY_TEST_VAR.getName()).getLong("failures"))
+            .isEqualTo(1);
+        assertThat(metrics.getJSONObject("operations").getJSONObject("putState").getLong("count")).isEqualTo(1);
+        assertThat(metrics.getJSONObject("operations").getJSONObject("getState").getLong("count")).isEqualTo(1);
+    }
+
+    @Test
+    public void metricsShouldIncludeEggCacheCounters() {
+        doReturn(Collections.emptyList()).when(chaincodeStub).getParameters();
+        doReturn(GET_METRICS.getName()).when(chaincodeStub).getFunction();
+        JSONObject before = new JSONObject(invokeAndAssertSuccess().getMessage()).getJSONObject("eggCache");
+        doReturn(GET_EGG.getName()).when(chaincodeStub).getFunction();
+        invokeAndAssertSuccess();
+        invokeAndAssertSuccess();
+
+        doReturn(GET_METRICS.getName()).when(chaincodeStub).getFunction();
+        JSONObject after = new JSONObject(invokeAndAssertSuccess().getMessage()).getJSONObject("eggCache");
+        // The cache lives as long as the peer, so earlier tests may already have cached this egg
+        assertThat(after.getLong("hits") - before.getLong("hits")).isBetween(1L, 2L);
+        assertThat(after.getLong("hits") + after.getLong("misses") - before.getLong("hits") - before.getLong("misses"))
+            .isEqualTo(2);
+        assertThat(after.getInt("entries")).isPositive();
+        assertThat(after.getLong("bytes")).isPositive();
+        assertThat(after.has("evictions")).isTrue();
+    }
+
+    // getEgg tests
+    @Test
+    public void storedEggShouldBeReadBackInsteadOfRendered() {
+        doReturn(STORE_EGG.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.singletonList(EggEncoding.RUN_LENGTH.getName())).when(chaincodeStub).getParameters();
+        String hash = invokeAndAssertSuccess().getMessage();
+        ArgumentCaptor<String> key = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> record = ArgumentCaptor.forClass(String.class);
+        verify(chaincodeStub).putStringState(key.capture(), record.capture());
+        assertThat(key.getValue()).startsWith(StoredEgg.KEY_PREFIX + EggEncoding.RUN_LENGTH.getName() + "~");
+
+        doReturn(GET_STORED_EGG.getName()).when(chaincodeStub).getFunction();
+        JSONObject notStored = new JSONObject(invokeAndAssertSuccess().getMessage());
+        assertThat(notStored.getBoolean("stored")).isFalse();
+        doReturn(record.getValue()).when(chaincodeStub).getStringState(key.getValue());
+        JSONObject stored = new JSONObject(invokeAndAssertSuccess().getMessage());
+        assertThat(stored.getBoolean("stored")).isTrue();
+        assertThat(stored.getString("hash")).isEqualTo(hash);
+        assertThat(stored.getString("egg")).isEqualTo(notStored.getString("egg"));
+
+        doReturn(STORE_EGG.getName()).when(chaincodeStub).getFunction();
+        invokeAndAssertSuccess(hash);
+        verify(chaincodeStub, times(1)).putStringState(anyString(), anyString());
+    }
+
+    @Test
+    public void testVarsShouldNotOverwriteStoredEggs() {
+        doReturn(SET_TEST_VAR.getName()).when(chaincodeStub).getFunction();
+        doReturn(Arrays.asList(StoredEgg.KEY_PREFIX + "plain~Egg000", "rotten")).when(chaincodeStub).getParameters();
+        invokeAndAssertSuccess("Keys starting with " + StoredEgg.KEY_PREFIX + " are reserved");
+        verify(chaincodeStub, never()).putStringState(anyString(), anyString());
+    }
+
+    @Test
+    public void runLengthEggShouldLookLikePlainEgg() {
+        doReturn(GET_EGG.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.emptyList()).when(chaincodeStub).getParameters();
+        String plainEgg = invokeAndAssertSuccess().getMessage();
+
+        doReturn(GET_EGG_ENCODED.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.singletonList(EggEncoding.RUN_LENGTH.getName())).when(chaincodeStub).getParameters();
+        String runLengthEgg = invokeAndAssertSuccess().getMessage();
+
+        assertThat(runLengthEgg.length()).isLessThan(plainEgg.length());
+        assertThat(toCellColors(runLengthEgg)).isEqualTo(toCellColors(plainEgg));
+    }
+
+    @Test
+    public void eggFrameShouldHoldTheSamePixelsAsPlainEgg() {
+        doReturn(GET_EGG.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.emptyList()).when(chaincodeStub).getParameters();
+        String plainEgg = invokeAndAssertSuccess().getMessage();
+
+        doReturn(GET_EGG_FRAME.getName()).when(chaincodeStub).getFunction();
+        byte[] frameBytes = invokeAndAssertSuccess().getPayload();
+        EggFrame frame = EggFrame.decode(frameBytes);
+
+        List<List<String>> frameColors = new ArrayList<>();
+        for (int y = 0; y < frame.getHeight(); y++) {
+            List<String> row = new ArrayList<>();
+            for (int x = 0; x < frame.getWidth(); x++) {
+                row.add("\033[0;" + frame.getPaletteCode(frame.getPixel(x, y)) + "m");
+            }
+            frameColors.add(row);
+        }
+        assertThat(frameColors).isEqualTo(toCellColors(plainEgg));
+        assertThat(frameBytes.length * 10).isLessThan(plainEgg.length());
+    }
+
+    @Test
+    public void sizedEggShouldHaveRequestedDimensions() {
+        doReturn(GET_EGG_SIZED.getName()).when(chaincodeStub).getFunction();
+        doReturn(Arrays.asList("40", "10", EggEncoding.RUN_LENGTH.getName())).when(chaincodeStub).getParameters();
+        List<List<String>> cellColors = toCellColors(invokeAndAssertSuccess().getMessage());
+        assertThat(cellColors).hasSize(21);
+        assertThat(cellColors.get(0)).hasSize(81);
+    }
+
+    @Test
+    public void sizedEggShouldBeRefusedAboveLimit() {
+        doReturn(GET_EGG_SIZED.getName()).when(chaincodeStub).getFunction();
+        String tooLarge = String.valueOf(Invocation.MAX_SIZED_EGG_HORIZONTAL_RADIUS + 1);
+        doReturn(Arrays.asList(tooLarge, "10", EggEncoding.PLAIN.getName())).when(chaincodeStub).getParameters();
+        assertThat(invokeAndAssertSuccess().getMessage()).startsWith("Radius must be between 1 and");
+    }
+
+    // Interprets ANSI output as a terminal would: the active background color of every printed cell, per row
+    private static List<List<String>> toCellColors(String ansi) {
+        List<List<String>> rows = new ArrayList<>();
+        List<String> row = new ArrayList<>();
+        String activeColor = null;
+        for (int i = 0; i < ansi.length(); i++) {
+            char c = ansi.charAt(i);
+            if (c == '\u001b') {
+                int end = ansi.indexOf('m', i);
+                String code = ansi.substring(i, end + 1);
+                activeColor = code.equals(Color.RESET) ? null : code;
+                i = end;
+            } else if (c == '\n') {
+                rows.add(row);
+                row = new ArrayList<>();
+            } else {
+                row.add(activeColor);
+            }
+        }
+        return rows;
+    }
+
     // queryForHistory tests
     @Test
     public void shouldReturnJsonObjectForHistoryData() {
@@ -146,6 +425,161 @@ public class SkeletonCCTest {
         JSONAssert.assertEquals(msg, res, JSONCompareMode.NON_EXTENSIBLE);
     }
 
+    @Test
+    public void shouldReturnHistoryInPages() {
+        String trainName = "redDevil";
+        doReturn(QUERY_HISTORY_PAGE.getName()).when(chaincodeStub).getFunction();
+        Instant instant1 = Instant.ofEpochMilli(1543005164982L);
+        Instant instant2 = Instant.ofEpochMilli(1549805164982L);
+        Instant instant3 = Instant.ofEpochMilli(1556605164982L);
+        MockQueryResultsIterator firstPageIterator = new MockQueryResultsIterator(
+            new MockKeyModification("tx1", "1", instant1, false),
+            new MockKeyModification("tx2", "3", instant2, false),
+            new MockKeyModification("tx3", "\"quoted\"", instant3, true));
+        MockQueryResultsIterator secondPageIterator = new MockQueryResultsIterator(
+            new MockKeyModification("tx1", "1", instant1, false),
+            new MockKeyModification("tx2", "3", instant2, false),
+            new MockKeyModification("tx3", "\"quoted\"", instant3, true));
+        doReturn(firstPageIterator, secondPageIterator).when(chaincodeStub).getHistoryForKey(trainName);
+
+        doReturn(Arrays.asList(trainName, "2", "", "", "")).when(chaincodeStub).getParameters();
+        String firstPage = invokeAndAssertSuccess().getMessage();
+        JSONAssert.assertEquals("{\"transactions\":[{\"transactionId\":\"tx1\",\"timestamp\":\"" + instant1
+            + "\",\"value\":\"1\",\"isDeleted\":false},{\"transactionId\":\"tx2\",\"timestamp\":\"" + instant2
+            + "\",\"value\":\"3\",\"isDeleted\":false}],\"bookmark\":\"tx2\"}", firstPage, JSONCompareMode.STRICT);
+        assertThat(firstPageIterator.isClosed()).isTrue();
+
+        doReturn(Arrays.asList(trainName, "2", "tx2", "", "")).when(chaincodeStub).getParameters();
+        String secondPage = invokeAndAssertSuccess().getMessage();
+        JSONAssert.assertEquals("{\"transactions\":[{\"transactionId\":\"tx3\",\"timestamp\":\"" + instant3
+            + "\",\"value\":\"\\\"quoted\\\"\",\"isDeleted\":true}],\"bookmark\":\"\"}", secondPage,
+            JSONCompareMode.STRICT);
+        assertThat(secondPageIterator.isClosed()).isTrue();
+    }
+
+    @Test
+    public void shouldFilterHistoryPageByTime() {
+        String trainName = "redDevil";
+        doReturn(QUERY_HISTORY_PAGE.getName()).when(chaincodeStub).getFunction();
+        QueryResultsIterator<KeyModification> queryResultsIterator = new MockQueryResultsIterator(
+            new MockKeyModification("tx1", "1", Instant.ofEpochMilli(1000), false),
+            new MockKeyModification("tx2", "2", Instant.ofEpochMilli(2000), false),
+            new MockKeyModification("tx3", "3", Instant.ofEpochMilli(3000), false));
+        doReturn(queryResultsIterator).when(chaincodeStub).getHistoryForKey(trainName);
+        doReturn(Arrays.asList(trainName, "10", "", "2000", "3000")).when(chaincodeStub).getParameters();
+
+        JSONObject page = new JSONObject(invokeAndAssertSuccess().getMessage());
+        assertThat(page.getJSONArray("transactions").length()).isEqualTo(1);
+        assertThat(page.getJSONArray("transactions").getJSONObject(0).getString("transactionId")).isEqualTo("tx2");
+        assertThat(page.getString("bookmark")).isEmpty();
+    }
+
+    @Test
+    public void historyPageShouldKeepReadingPastALateTimestamp() {
+        String trainName = "redDevil";
+        doReturn(QUERY_HISTORY_PAGE.getName()).when(chaincodeStub).getFunction();
+        // Commit order: tx2 proposed a timestamp later than tx3's
+        QueryResultsIterator<KeyModification> queryResultsIterator = new MockQueryResultsIterator(
+            new MockKeyModification("tx1", "1", Instant.ofEpochMilli(1000), false),
+            new MockKeyModification("tx2", "2", Instant.ofEpochMilli(4000), false),
+            new MockKeyModification("tx3", "3", Instant.ofEpochMilli(2000), false));
+        doReturn(queryResultsIterator).when(chaincodeStub).getHistoryForKey(trainName);
+        doReturn(Arrays.asList(trainName, "10", "", "", "3000")).when(chaincodeStub).getParameters();
+
+        JSONObject page = new JSONObject(invokeAndAssertSuccess().getMessage());
+        assertThat(page.getJSONArray("transactions").length()).isEqualTo(2);
+        assertThat(page.getJSONArray("transactions").getJSONObject(0).getString("transactionId")).isEqualTo("tx1");
+        assertThat(page.getJSONArray("transactions").getJSONObject(1).getString("transactionId")).isEqualTo("tx3");
+        assertThat(page.getString("bookmark")).isEmpty();
+    }
+
+    @Test
+    public void historyPageShouldRefuseUnknownBookmark() {
+        String trainName = "redDevil";
+        doReturn(QUERY_HISTORY_PAGE.getName()).when(chaincodeStub).getFunction();
+        QueryResultsIterator<KeyModification> queryResultsIterator = new MockQueryResultsIterator(
+            new MockKeyModification("tx1", "1", Instant.ofEpochMilli(1000), false),
+            new MockKeyModification("tx2", "2", Instant.ofEpochMilli(2000), false));
+        doReturn(queryResultsIterator).when(chaincodeStub).getHistoryForKey(trainName);
+        doReturn(Arrays.asList(trainName, "10", "tx9", "", "")).when(chaincodeStub).getParameters();
+
+        invokeAndAssertSuccess("Unknown bookmark tx9 for the history of " + trainName);
+    }
+
+    @Test
+    public void historyPageSizeShouldBeLimited() {
+        doReturn(QUERY_HISTORY_PAGE.getName()).when(chaincodeStub).getFunction();
+        String tooLarge = String.valueOf(LedgerService.MAX_HISTORY_PAGE_SIZE + 1);
+        doReturn(Arrays.asList("redDevil", tooLarge, "", "", "")).when(chaincodeStub).getParameters();
+        assertThat(invokeAndAssertSuccess().getMessage()).startsWith("Page size must be between 1 and");
+    }
+
+    // Batch and range tests
+    @Test
+    public void batchSetShouldPutEveryKeyInSortedOrder() {
+        doReturn(BATCH_SET_TEST_VARS.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.singletonList("{\"redDevil\":\"2\",\"blueArrow\":\"1\"}")).when(chaincodeStub)
+            .getParameters();
+        invokeAndAssertSuccess();
+        InOrder inOrder = inOrder(chaincodeStub);
+        inOrder.verify(chaincodeStub).putStringState("blueArrow", "1");
+        inOrder.verify(chaincodeStub).putStringState("redDevil", "2");
+    }
+
+    @Test
+    public void batchSetShouldWriteNothingIfAnyValueIsInvalid() {
+        doReturn(BATCH_SET_TEST_VARS.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.singletonList("{\"a\":\"x\",\"b\":1}")).when(chaincodeStub).getParameters();
+        invokeAndAssertSuccess("Value of b must be a string");
+        verify(chaincodeStub, never()).putStringState(anyString(), anyString());
+    }
+
+    @Test
+    public void batchQueryShouldReturnNullForMissingKeys() {
+        doReturn(BATCH_QUERY_TEST_VARS.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.singletonList("[\"redDevil\",\"blueArrow\"]")).when(chaincodeStub).getParameters();
+        doReturn("4").when(chaincodeStub).getStringState("redDevil");
+        JSONAssert.assertEquals("{\"redDevil\":\"4\",\"blueArrow\":null}", invokeAndAssertSuccess().getMessage(),
+            JSONCompareMode.STRICT);
+    }
+
+    @Test
+    public void batchShouldBeRefusedAboveKeyLimit() {
+        StringBuilder keys = new StringBuilder("[");
+        for (int i = 0; i <= GlobalConfig.MAX_BATCH_KEYS; i++) {
+            keys.append(i == 0 ? "" : ",").append('"').append(i).append('"');
+        }
+        doReturn(BATCH_QUERY_TEST_VARS.getName()).when(chaincodeStub).getFunction();
+        doReturn(Collections.singletonList(keys.append(']').toString())).when(chaincodeStub).getParameters();
+        assertThat(invokeAndAssertSuccess().getMessage()).startsWith("A batch may hold at most");
+        verify(chaincodeStub, never()).getStringState(anyString());
+    }
+
+    @Test
+    public void rangeQueryShouldReturnOnePageWithBookmark() throws Exception {
+        doReturn(QUERY_TEST_VAR_RANGE.getName()).when(chaincodeStub).getFunction();
+        doReturn(Arrays.asList("a", "z", "2", "")).when(chaincodeStub).getParameters();
+        @SuppressWarnings("unchecked")
+        QueryResultsIteratorWithMetadata<KeyValue> queryResultsIterator = mock(QueryResultsIteratorWithMetadata.class);
+        doReturn(Arrays.asList(mockKeyValue("blueArrow", "1"), mockKeyValue("redDevil", "2")).iterator())
+            .when(queryResultsIterator).iterator();
+        doReturn(QueryResponseMetadata.newBuilder().setFetchedRecordsCount(2).setBookmark("redDevil").build())
+            .when(queryResultsIterator).getMetadata();
+        doReturn(queryResultsIterator).when(chaincodeStub).getStateByRangeWithPagination("a", "z", 2, "");
+
+        JSONAssert.assertEquals("{\"results\":[{\"key\":\"blueArrow\",\"value\":\"1\"},"
+                + "{\"key\":\"redDevil\",\"value\":\"2\"}],\"bookmark\":\"redDevil\"}",
+            invokeAndAssertSuccess().getMessage(), JSONCompareMode.STRICT);
+        verify(queryResultsIterator).close();
+    }
+
+    private static KeyValue mockKeyValue(String key, String value) {
+        KeyValue keyValue = mock(KeyValue.class);
+        doReturn(key).when(keyValue).getKey();
+        doReturn(value).when(keyValue).getStringValue();
+        return keyValue;
+    }
+
     private QueryResultsIterator<KeyModification> mockQueryResultIterator(KeyModification firstKey,
         KeyModification secondKey) {
         return new MockQueryResultsIterator(firstKey, secondKey);
@@ -0,0 +1,248 @@
+package org.easteregg.chaincode.simulator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import lombok.Value;
+import org.hyperledger.fabric.shim.Chaincode.Response;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+
+/*
+ * In-memory stand-in for the world state and history database of a peer, to run the chaincode without a network.
+ *
+ * Transactions are simulated against the committed state, like an endorser does: reads see the state from before the
+ * transaction and are recorded in its read set, writes are only collected in its write set. commit() then validates
+ * the transaction like a committing peer: it is rejected with MVCC_READ_CONFLICT when a key it read has been written
+ * since, or with PHANTOM_READ_CONFLICT when a range it queried now holds other keys or versions. Valid transactions
+ * are applied in commit order, which makes commit() the equivalent of the ordering service.
+ *
+ * Simulation and commits may run concurrently from any number of threads; commits are serialized.
+ */
+public class LedgerSimulator {
+
+    public static final int DEFAULT_MAX_CAPTURED_EVENTS = 10_000;
+
+    public enum ValidationCode {
+        VALID,
+        MVCC_READ_CONFLICT,
+        PHANTOM_READ_CONFLICT,
+        // The chaincode returned an error response, so a client would not have submitted the transaction
+        ENDORSEMENT_FAILED
+    }
+
+    @Value
+    public static class SimulatedResult {
+        String txId;
+        Response response;
+        ValidationCode validationCode;
+    }
+
+    @Value
+    public static class CommittedEvent {
+        String txId;
+        String name;
+        byte[] payload;
+    }
+
+    @Value
+    static class VersionedValue {
+        byte[] value;
+        long version;
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<String, VersionedValue> state = new TreeMap<>();
+    private final Map<String, List<KeyModification>> history = new HashMap<>();
+    private final Deque<CommittedEvent> events = new ArrayDeque<>();
+    private final int maxCapturedEvents;
+    private final AtomicLong txCounter = new AtomicLong();
+    private final AtomicLong lastTxMillis = new AtomicLong();
+    private long commitSequence;
+
+    private final Map<ValidationCode, LongAdder> validationCounts = new HashMap<>();
+
+    public LedgerSimulator() {
+        this(DEFAULT_MAX_CAPTURED_EVENTS);
+    }
+
+    // Only the latest maxCapturedEvents events are kept, so long runs do not fill up the heap
+    public LedgerSimulator(int maxCapturedEvents) {
+        this.maxCapturedEvents = maxCapturedEvents;
+        for (ValidationCode code : ValidationCode.values()) {
+            validationCounts.put(code, new LongAdder());
+        }
+    }
+
+    public SimulatedTransaction newTransaction(byte[] creator, String function, String... parameters) {
+        long txNumber = txCounter.incrementAndGet();
+        return new SimulatedTransaction(this, String.format("%064x", txNumber), nextTxTimestamp(), creator, function,
+            parameters);
+    }
+
+    // Simulates and commits one transaction, e.g. execute(skeletonCC::invoke, creator, "setTestVar", "key", "value")
+    public SimulatedResult execute(Function<ChaincodeStub, Response> chaincode, byte[] creator, String function,
+        String... parameters) {
+        SimulatedTransaction transaction = newTransaction(creator, function, parameters);
+        Response response = chaincode.apply(transaction.getStub());
+        ValidationCode validationCode;
+        if (response.getStatusCode() >= Response.Status.ERROR_THRESHOLD.getCode()) {
+            validationCode = ValidationCode.ENDORSEMENT_FAILED;
+            validationCounts.get(validationCode).increment();
+        } else {
+            validationCode = commit(transaction);
+        }
+        return new SimulatedResult(transaction.getTxId(), response, validationCode);
+    }
+
+    public ValidationCode commit(SimulatedTransaction transaction) {
+        ValidationCode validationCode;
+        lock.writeLock().lock();
+        try {
+            validationCode = validate(transaction);
+            if (validationCode == ValidationCode.VALID) {
+                apply(transaction);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        validationCounts.get(validationCode).increment();
+        return validationCode;
+    }
+
+    private ValidationCode validate(SimulatedTransaction transaction) {
+        for (Map.Entry<String, Long> read : transaction.getReadVersions().entrySet()) {
+            if (versionOf(read.getKey()) != read.getValue()) {
+                return ValidationCode.MVCC_READ_CONFLICT;
+            }
+        }
+        for (SimulatedTransaction.RangeRead rangeRead : transaction.getRangeReads()) {
+            if (!scanVersions(rangeRead).equals(rangeRead.getVersions())) {
+                return ValidationCode.PHANTOM_READ_CONFLICT;
+            }
+        }
+        return ValidationCode.VALID;
+    }
+
+    private void apply(SimulatedTransaction transaction) {
+        long version = ++commitSequence;
+        for (Map.Entry<String, byte[]> write : transaction.getWrites().entrySet()) {
+            byte[] value = write.getValue();
+            if (value == null) {
+                state.remove(write.getKey());
+            } else {
+                state.put(write.getKey(), new VersionedValue(value, version));
+            }
+            history.computeIfAbsent(write.getKey(), key -> new ArrayList<>()).add(new SimulatedKeyModification(
+                transaction.getTxId(), value == null ? new byte[0] : value, transaction.getTxTimestamp(),
+                value == null));
+        }
+        if (transaction.getEventName() != null) {
+            events.addLast(new CommittedEvent(transaction.getTxId(), transaction.getEventName(),
+                transaction.getEventPayload()));
+            if (events.size() > maxCapturedEvents) {
+                events.removeFirst();
+            }
+        }
+    }
+
+    // Unique per transaction, in milliseconds, as the chaincode expects no two transactions at the same time
+    private Instant nextTxTimestamp() {
+        return Instant.ofEpochMilli(lastTxMillis.updateAndGet(last -> Math.max(System.currentTimeMillis(), last + 1)));
+    }
+
+    VersionedValue read(String key) {
+        lock.readLock().lock();
+        try {
+            return state.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Keys in [startKey, endKey) from startKey on, at most limit of them; an empty endKey means no upper bound
+    List<Map.Entry<String, VersionedValue>> readRange(String startKey, String endKey, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Map.Entry<String, VersionedValue>> range = new ArrayList<>();
+            for (Map.Entry<String, VersionedValue> entry : subMap(startKey, endKey).entrySet()) {
+                if (range.size() == limit) {
+                    break;
+                }
+                range.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+            }
+            return range;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<KeyModification> readHistory(String key) {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(history.getOrDefault(key, Collections.emptyList()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Versions of the keys that the range query would see now, in key order
+    private Map<String, Long> scanVersions(SimulatedTransaction.RangeRead rangeRead) {
+        Map<String, Long> versions = new TreeMap<>();
+        NavigableMap<String, VersionedValue> range = rangeRead.getEndKey().isEmpty()
+            ? state.tailMap(rangeRead.getStartKey(), true)
+            : state.subMap(rangeRead.getStartKey(), true, rangeRead.getEndKey(), rangeRead.isEndInclusive());
+        range.forEach((key, value) -> versions.put(key, value.getVersion()));
+        return versions;
+    }
+
+    private NavigableMap<String, VersionedValue> subMap(String startKey, String endKey) {
+        return endKey.isEmpty() ? state.tailMap(startKey, true) : state.subMap(startKey, true, endKey, false);
+    }
+
+    // 0 for keys that do not exist
+    private long versionOf(String key) {
+        VersionedValue value = state.get(key);
+        return value == null ? 0 : value.getVersion();
+    }
+
+    public String getCommittedStringState(String key) {
+        VersionedValue value = read(key);
+        return value == null ? null : new String(value.getValue(), UTF_8);
+    }
+
+    public List<CommittedEvent> getCommittedEvents() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(events);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getCount(ValidationCode validationCode) {
+        return validationCounts.get(validationCode).sum();
+    }
+
+    // Share of the submitted transactions that were rejected because of a conflict
+    public double getConflictRate() {
+        long conflicts = getCount(ValidationCode.MVCC_READ_CONFLICT) + getCount(ValidationCode.PHANTOM_READ_CONFLICT);
+        long submitted = conflicts + getCount(ValidationCode.VALID);
+        return submitted == 0 ? 0 : (double) conflicts / submitted;
+    }
+}
@@ -0,0 +1,103 @@
+package org.easteregg.chaincode.simulator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.easteregg.chaincode.simulator.LedgerSimulator.ValidationCode;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+import org.junit.Test;
+
+public class LedgerSimulatorTest {
+
+    private static final byte[] CREATOR = new byte[]{1, 2, 3};
+
+    private final LedgerSimulator ledger = new LedgerSimulator();
+
+    private void commitWrite(String key, String value) {
+        SimulatedTransaction transaction = ledger.newTransaction(CREATOR, "write");
+        transaction.getStub().putStringState(key, value);
+        assertThat(ledger.commit(transaction)).isEqualTo(ValidationCode.VALID);
+    }
+
+    @Test
+    public void writesShouldOnlyBeVisibleAfterCommit() {
+        SimulatedTransaction transaction = ledger.newTransaction(CREATOR, "write");
+        transaction.getStub().putStringState("trainName", "redDevil");
+        assertThat(transaction.getStub().getStringState("trainName")).isEmpty();
+        assertThat(ledger.getCommittedStringState("trainName")).isNull();
+
+        assertThat(ledger.commit(transaction)).isEqualTo(ValidationCode.VALID);
+        assertThat(ledger.getCommittedStringState("trainName")).isEqualTo("redDevil");
+    }
+
+    @Test
+    public void staleReadShouldBeAnMvccConflict() {
+        commitWrite("trainName", "redDevil");
+        SimulatedTransaction reader = ledger.newTransaction(CREATOR, "read");
+        reader.getStub().getStringState("trainName");
+        reader.getStub().putStringState("speed", "100");
+        commitWrite("trainName", "blueArrow");
+
+        assertThat(ledger.commit(reader)).isEqualTo(ValidationCode.MVCC_READ_CONFLICT);
+        assertThat(ledger.getCommittedStringState("speed")).isNull();
+        assertThat(ledger.getConflictRate()).isEqualTo(1.0 / 3);
+    }
+
+    @Test
+    public void keyAddedToQueriedRangeShouldBeAPhantomConflict() {
+        commitWrite("b", "1");
+        SimulatedTransaction scanner = ledger.newTransaction(CREATOR, "scan");
+        scanner.getStub().getStateByRange("a", "c").forEach(keyValue -> { });
+        commitWrite("bb", "2");
+        commitWrite("d", "3");
+
+        assertThat(ledger.commit(scanner)).isEqualTo(ValidationCode.PHANTOM_READ_CONFLICT);
+    }
+
+    @Test
+    public void rangeShouldBePaginatedWithBookmarks() throws Exception {
+        for (String key : new String[]{"a", "b", "c", "d", "e"}) {
+            commitWrite(key, key.toUpperCase());
+        }
+        ChaincodeStub stub = ledger.newTransaction(CREATOR, "scan").getStub();
+        List<String> keys = new ArrayList<>();
+        String bookmark = "";
+        do {
+            try (QueryResultsIteratorWithMetadata<KeyValue> page =
+                stub.getStateByRangeWithPagination("b", "", 2, bookmark)) {
+                page.forEach(keyValue -> keys.add(keyValue.getKey() + "=" + keyValue.getStringValue()));
+                bookmark = page.getMetadata().getBookmark();
+            }
+        } while (!bookmark.isEmpty());
+        assertThat(keys).containsExactly("b=B", "c=C", "d=D", "e=E");
+    }
+
+    @Test
+    public void historyAndEventsShouldOnlyHoldValidTransactions() {
+        commitWrite("trainName", "redDevil");
+        SimulatedTransaction deleter = ledger.newTransaction(CREATOR, "delete");
+        deleter.getStub().delState("trainName");
+        deleter.getStub().setEvent("deleted", "trainName".getBytes(UTF_8));
+        assertThat(ledger.commit(deleter)).isEqualTo(ValidationCode.VALID);
+
+        SimulatedTransaction stale = ledger.newTransaction(CREATOR, "stale");
+        stale.getStub().getState("trainName");
+        stale.getStub().setEvent("stale", new byte[0]);
+        commitWrite("trainName", "blueArrow");
+        assertThat(ledger.commit(stale)).isEqualTo(ValidationCode.MVCC_READ_CONFLICT);
+
+        List<KeyModification> history = new ArrayList<>();
+        ledger.newTransaction(CREATOR, "history").getStub().getHistoryForKey("trainName").forEach(history::add);
+        assertThat(history).extracting(KeyModification::getStringValue).containsExactly("redDevil", "", "blueArrow");
+        assertThat(history.get(1).isDeleted()).isTrue();
+        assertThat(history.get(1).getTxId()).isEqualTo(deleter.getTxId());
+        assertThat(history.get(0).getTimestamp()).isBefore(history.get(1).getTimestamp());
+        assertThat(ledger.getCommittedEvents()).extracting(LedgerSimulator.CommittedEvent::getName)
+            .containsExactly("deleted");
+    }
+}
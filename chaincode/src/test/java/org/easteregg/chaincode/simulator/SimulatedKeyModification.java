@@ -0,0 +1,20 @@
+package org.easteregg.chaincode.simulator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.time.Instant;
+import lombok.Value;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+
+@Value
+class SimulatedKeyModification implements KeyModification {
+    String txId;
+    byte[] value;
+    Instant timestamp;
+    boolean deleted;
+
+    @Override
+    public String getStringValue() {
+        return new String(value, UTF_8);
+    }
+}
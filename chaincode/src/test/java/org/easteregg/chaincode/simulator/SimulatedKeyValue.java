@@ -0,0 +1,17 @@
+package org.easteregg.chaincode.simulator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import lombok.Value;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+
+@Value
+class SimulatedKeyValue implements KeyValue {
+    String key;
+    byte[] value;
+
+    @Override
+    public String getStringValue() {
+        return new String(value, UTF_8);
+    }
+}
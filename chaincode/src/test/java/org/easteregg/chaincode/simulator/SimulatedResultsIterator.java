@@ -0,0 +1,29 @@
+package org.easteregg.chaincode.simulator;
+
+import java.util.Iterator;
+import java.util.List;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.QueryResponseMetadata;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+
+// Results of a query that were read in full when it was made; metadata is only set for paginated queries
+@RequiredArgsConstructor
+class SimulatedResultsIterator<T> implements QueryResultsIteratorWithMetadata<T> {
+
+    private final List<T> results;
+    @Getter
+    private final QueryResponseMetadata metadata;
+    @Getter
+    private boolean closed;
+
+    @Override
+    public Iterator<T> iterator() {
+        return results.iterator();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,183 @@
+package org.easteregg.chaincode.simulator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Value;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.QueryResponseMetadata;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+
+/*
+ * A single transaction of a LedgerSimulator, and the ChaincodeStub the chaincode uses to simulate it.
+ *
+ * Like on a peer, reads return the committed state and never the transaction's own writes. The stub is a dynamic
+ * proxy: the calls below are simulated, any other ChaincodeStub call throws an UnsupportedOperationException.
+ * A transaction is meant to be simulated by one thread.
+ */
+@Getter
+public class SimulatedTransaction {
+
+    public static final String CHANNEL_ID = "simulated";
+
+    @Value
+    static class RangeRead {
+        String startKey;
+        // Empty for no upper bound
+        String endKey;
+        boolean endInclusive;
+        Map<String, Long> versions;
+    }
+
+    @Getter(AccessLevel.NONE)
+    private final LedgerSimulator ledger;
+    private final String txId;
+    private final Instant txTimestamp;
+    @Getter(AccessLevel.NONE)
+    private final byte[] creator;
+    private final String function;
+    private final List<String> parameters;
+    private final ChaincodeStub stub;
+    // Version of every key read, 0 when it did not exist
+    private final Map<String, Long> readVersions = new HashMap<>();
+    private final List<RangeRead> rangeReads = new ArrayList<>();
+    // null values are deletes
+    private final Map<String, byte[]> writes = new LinkedHashMap<>();
+    private String eventName;
+    private byte[] eventPayload;
+
+    SimulatedTransaction(LedgerSimulator ledger, String txId, Instant txTimestamp, byte[] creator, String function,
+        String... parameters) {
+        this.ledger = ledger;
+        this.txId = txId;
+        this.txTimestamp = txTimestamp;
+        this.creator = creator;
+        this.function = function;
+        this.parameters = Collections.unmodifiableList(Arrays.asList(parameters));
+        this.stub = (ChaincodeStub) Proxy.newProxyInstance(ChaincodeStub.class.getClassLoader(),
+            new Class<?>[]{ChaincodeStub.class}, (proxy, method, args) -> handle(proxy, method, args));
+    }
+
+    private Object handle(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getFunction":
+                return function;
+            case "getParameters":
+                return parameters;
+            case "getStringArgs":
+                return getStringArgs();
+            case "getArgs":
+                return getStringArgs().stream().map(arg -> arg.getBytes(UTF_8)).collect(Collectors.toList());
+            case "getTxId":
+                return txId;
+            case "getChannelId":
+                return CHANNEL_ID;
+            case "getTxTimestamp":
+                return txTimestamp;
+            case "getCreator":
+                return creator.clone();
+            case "getTransient":
+                return Collections.emptyMap();
+            case "getBinding":
+                return new byte[0];
+            case "getState":
+                return getState((String) args[0]);
+            case "getStringState":
+                return new String(getState((String) args[0]), UTF_8);
+            case "putState":
+                putState((String) args[0], (byte[]) args[1]);
+                return null;
+            case "putStringState":
+                putState((String) args[0], ((String) args[1]).getBytes(UTF_8));
+                return null;
+            case "delState":
+                writes.put((String) args[0], null);
+                return null;
+            case "getStateByRange":
+                return getStateByRange((String) args[0], (String) args[1], Integer.MAX_VALUE, "", false);
+            case "getStateByRangeWithPagination":
+                return getStateByRange((String) args[0], (String) args[1], (Integer) args[2], (String) args[3], true);
+            case "getHistoryForKey":
+                return new SimulatedResultsIterator<>(ledger.readHistory((String) args[0]), null);
+            case "setEvent":
+                // A transaction has at most one event; setting another one replaces it
+                eventName = (String) args[0];
+                eventPayload = ((byte[]) args[1]).clone();
+                return null;
+            case "toString":
+                return "SimulatedStub(" + txId + ")";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new UnsupportedOperationException(method.getName() + " is not simulated");
+        }
+    }
+
+    private List<String> getStringArgs() {
+        List<String> stringArgs = new ArrayList<>(parameters.size() + 1);
+        stringArgs.add(function);
+        stringArgs.addAll(parameters);
+        return stringArgs;
+    }
+
+    // Like the shim, returns an empty array for keys that do not exist
+    private byte[] getState(String key) {
+        LedgerSimulator.VersionedValue value = ledger.read(key);
+        readVersions.putIfAbsent(key, value == null ? 0 : value.getVersion());
+        return value == null ? new byte[0] : value.getValue().clone();
+    }
+
+    private void putState(String key, byte[] value) {
+        if (key.isEmpty()) {
+            throw new IllegalArgumentException("Key must not be empty");
+        }
+        writes.put(key, value.clone());
+    }
+
+    // The bookmark of a page is the first key of the next page, or empty on the last page
+    private SimulatedResultsIterator<KeyValue> getStateByRange(String startKey, String endKey, int pageSize,
+        String bookmark, boolean paginated) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive, got " + pageSize);
+        }
+        String firstKey = bookmark.isEmpty() ? startKey : bookmark;
+        List<Map.Entry<String, LedgerSimulator.VersionedValue>> range =
+            ledger.readRange(firstKey, endKey, pageSize == Integer.MAX_VALUE ? pageSize : pageSize + 1);
+        boolean hasNextPage = range.size() > pageSize;
+        List<Map.Entry<String, LedgerSimulator.VersionedValue>> page = hasNextPage ? range.subList(0, pageSize) : range;
+
+        Map<String, Long> versions = new TreeMap<>();
+        List<KeyValue> results = new ArrayList<>(page.size());
+        for (Map.Entry<String, LedgerSimulator.VersionedValue> entry : page) {
+            versions.put(entry.getKey(), entry.getValue().getVersion());
+            results.add(new SimulatedKeyValue(entry.getKey(), entry.getValue().getValue().clone()));
+        }
+        // A full page only covers the keys up to its last one; anything after that belongs to the next page
+        rangeReads.add(hasNextPage
+            ? new RangeRead(firstKey, page.get(page.size() - 1).getKey(), true, versions)
+            : new RangeRead(firstKey, endKey, false, versions));
+
+        QueryResponseMetadata metadata = paginated
+            ? QueryResponseMetadata.newBuilder()
+                .setFetchedRecordsCount(results.size())
+                .setBookmark(hasNextPage ? range.get(pageSize).getKey() : "")
+                .build()
+            : null;
+        return new SimulatedResultsIterator<>(results, metadata);
+    }
+}
@@ -0,0 +1,76 @@
+package shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class EggFrameTest {
+
+    private static final int[] PALETTE = {100, 101, 102, 103, 104, 105, 106, 107};
+
+    private static void assertSamePixels(EggFrame actual, EggFrame expected) {
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+        assertThat(actual.getBackgroundIndex()).isEqualTo(expected.getBackgroundIndex());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertThat(actual.getPixel(x, y)).isEqualTo(expected.getPixel(x, y));
+                assertThat(actual.getPaletteCode(actual.getPixel(x, y)))
+                    .isEqualTo(expected.getPaletteCode(expected.getPixel(x, y)));
+            }
+        }
+    }
+
+    @Test
+    public void noisyFrameShouldRoundTripBitPacked() {
+        byte[] pixels = new byte[37 * 11];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) ((i * 7 + i / 5) % PALETTE.length);
+        }
+        EggFrame frame = new EggFrame(37, 11, PALETTE, 2, pixels);
+        byte[] encoded = frame.encode();
+        assertThat(encoded[1] & EggFrame.FLAG_RUN_LENGTH).isZero();
+        assertThat(encoded.length).isEqualTo(8 + PALETTE.length + (pixels.length * 3 + 7) / 8);
+        assertSamePixels(EggFrame.decode(encoded), frame);
+    }
+
+    @Test
+    public void uniformFrameShouldRoundTripRunLengthEncoded() {
+        byte[] pixels = new byte[300 * 200];
+        Arrays.fill(pixels, (byte) 2);
+        Arrays.fill(pixels, 1000, 1100, (byte) 5);
+        EggFrame frame = new EggFrame(300, 200, PALETTE, 2, pixels);
+        byte[] encoded = frame.encode();
+        assertThat(encoded[1] & EggFrame.FLAG_RUN_LENGTH).isEqualTo(EggFrame.FLAG_RUN_LENGTH);
+        assertSamePixels(EggFrame.decode(encoded), frame);
+    }
+
+    @Test
+    public void truncatedFrameShouldBeRejected() {
+        byte[] encoded = new EggFrame(10, 10, PALETTE, 0, new byte[100]).encode();
+        assertThatThrownBy(() -> EggFrame.decode(Arrays.copyOf(encoded, encoded.length - 1)))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EggFrame.decode(Arrays.copyOf(encoded, 4)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void pixelOutsideThePaletteShouldBeRejected() {
+        // 1x1, bit-packed, 5 palette entries so 3 bits per pixel, and the pixel is index 7
+        byte[] encoded = {EggFrame.VERSION, 0, 0, 1, 0, 1, 5, 0, 100, 101, 102, 103, 104, (byte) 0b1110_0000};
+        assertThatThrownBy(() -> EggFrame.decode(encoded))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("not in the palette");
+    }
+
+    @Test
+    public void runPastTheLastPixelShouldBeRejected() {
+        // 2x1, run-length encoded, 2 palette entries so 1 bit per pixel, and a single run of index 0 and length 3
+        byte[] encoded = {EggFrame.VERSION, EggFrame.FLAG_RUN_LENGTH, 0, 2, 0, 1, 2, 0, 100, 101, (byte) 0b0000_0100};
+        assertThatThrownBy(() -> EggFrame.decode(encoded))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("run exceeds the frame");
+    }
+}
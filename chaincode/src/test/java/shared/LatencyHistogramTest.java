@@ -0,0 +1,34 @@
+package shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void everyValueShouldFallInsideItsBucket() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 63, 64, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertThat(LatencyHistogram.bucketUpperBound(index)).isGreaterThanOrEqualTo(value);
+            assertThat(index == 0 || LatencyHistogram.bucketUpperBound(index - 1) < value).isTrue();
+        }
+    }
+
+    @Test
+    public void percentilesShouldBeWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 10_000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+        assertThat(histogram.getCount()).isEqualTo(10_000);
+        assertThat(histogram.getMaxNanos()).isEqualTo(10_000_000);
+        assertThat((double) histogram.getPercentileNanos(0.5)).isCloseTo(5_000_000, within(5_000_000 / 16.0));
+        assertThat((double) histogram.getPercentileNanos(0.99)).isCloseTo(9_900_000, within(9_900_000 / 16.0));
+        assertThat(histogram.getPercentileNanos(0.999)).isBetween(9_990_000L, 10_000_000L);
+
+        histogram.reset();
+        assertThat(histogram.getPercentileNanos(0.5)).isZero();
+    }
+}
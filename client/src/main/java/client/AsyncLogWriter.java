@@ -0,0 +1,188 @@
+package client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Appends lines to a log file from a single background thread, so logging never waits for the disk.
+// Callers only add their line to a lock-free queue; the writer thread drains it into a large buffer, which it
+// flushes every flushIntervalMillis and whenever it has nothing else to do. When the file grows past maxBytes, it
+// is renamed to <file>.1 (and an older <file>.1 to <file>.2 and so on, keeping maxBackups of them) and a new file is
+// started. The log holds the response times of the transactions, so no line is ever dropped: when queueCapacity lines
+// are waiting, callers wait for the writer to catch up (the queue may briefly hold one more line per caller).
+// close() first waits for the callers that are adding a line and stops taking new ones into the queue, then writes
+// everything that is waiting; lines logged after that are appended to the file directly.
+class AsyncLogWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FULL_QUEUE_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final File file;
+    private final long flushIntervalNanos;
+    private final long maxBytes;
+    private final int maxBackups;
+    private final int queueCapacity;
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    // Held shared by callers from checking closed until their line is queued, and exclusively by close() to set it
+    private final ReentrantReadWriteLock closing = new ReentrantReadWriteLock();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Only used by the writer thread
+    private OutputStream out;
+    private long fileBytes;
+    private long lastFlushNanos;
+    private boolean dirty;
+
+    AsyncLogWriter(String fileName, long flushIntervalMillis, long maxBytes, int maxBackups, int queueCapacity) {
+        this.file = new File(fileName);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.maxBytes = maxBytes;
+        this.maxBackups = maxBackups;
+        this.queueCapacity = queueCapacity;
+        writer = new Thread(this::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void append(String line) {
+        closing.readLock().lock();
+        try {
+            if (!closed) {
+                while (queued.get() >= queueCapacity && !closed) {
+                    LockSupport.unpark(writer);
+                    LockSupport.parkNanos(this, FULL_QUEUE_WAIT_NANOS);
+                }
+                int waiting = queued.incrementAndGet();
+                queue.add(line);
+                // The writer parks until the next flush when it runs out of work; wake it before the queue fills up
+                if (waiting == queueCapacity / 2) {
+                    LockSupport.unpark(writer);
+                }
+                return;
+            }
+        } finally {
+            closing.readLock().unlock();
+        }
+        appendDirectly(line);
+    }
+
+    // Stops taking lines into the queue, writes and flushes everything that is waiting, then stops the writer thread
+    void close() {
+        // Once this has the lock, every line that will ever be queued is in the queue
+        closing.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Only left if the writer failed or did not stop in time
+        String line;
+        while ((line = queue.poll()) != null) {
+            appendDirectly(line);
+        }
+    }
+
+    private void run() {
+        try {
+            open();
+            while (!closed) {
+                if (!drain()) {
+                    flush();
+                    LockSupport.parkNanos(this, flushIntervalNanos);
+                } else if (System.nanoTime() - lastFlushNanos >= flushIntervalNanos) {
+                    flush();
+                }
+            }
+            drain();
+            flush();
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Later lines are appended directly, which may still work
+            closed = true;
+        }
+    }
+
+    // Returns whether there was anything to write
+    private boolean drain() throws IOException {
+        String line;
+        boolean wrote = false;
+        while ((line = queue.poll()) != null) {
+            queued.decrementAndGet();
+            write(line);
+            wrote = true;
+        }
+        return wrote;
+    }
+
+    private void write(String line) throws IOException {
+        byte[] bytes = (line + '\n').getBytes(UTF_8);
+        if (fileBytes > 0 && fileBytes + bytes.length > maxBytes) {
+            roll();
+        }
+        out.write(bytes);
+        fileBytes += bytes.length;
+        dirty = true;
+    }
+
+    private void flush() throws IOException {
+        if (dirty) {
+            out.flush();
+            dirty = false;
+        }
+        lastFlushNanos = System.nanoTime();
+    }
+
+    private void open() throws IOException {
+        out = new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE);
+        fileBytes = file.length();
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        if (maxBackups > 0) {
+            for (int i = maxBackups - 1; i >= 1; i--) {
+                File backup = backup(i);
+                if (backup.exists()) {
+                    Files.move(backup.toPath(), backup(i + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file.toPath(), backup(1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file.toPath());
+        }
+        open();
+    }
+
+    private File backup(int index) {
+        return new File(file.getPath() + "." + index);
+    }
+
+    private synchronized void appendDirectly(String line) {
+        try (PrintStream fileStream = new PrintStream(new FileOutputStream(file, true), false, UTF_8.name())) {
+            fileStream.append(line).append('\n');
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.json.JSONObject;
+import shared.GlobalConfig.CcFunction;
+import shared.LatencyHistogram;
+
+// Latency histograms of the phases of the client's invocations, per CcFunction and per peer.
+// Durations are differences of System.nanoTime(), so they are not thrown off when the wall clock is adjusted.
+// The SDK asks every endorsing peer of a transaction at once and only returns when all of them answered, so the
+// endorsement of a transaction is only recorded per function; queries and commit notifications come from a single
+// peer and are recorded per peer as well.
+class ClientMetrics {
+
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    enum Phase {
+        // Building the proposal request, before the SDK signs and sends it
+        BUILD_PROPOSAL("buildProposal"),
+        // Sending the proposal until every endorsing peer answered
+        ENDORSEMENT("endorsement"),
+        // Handing the endorsed transaction to the orderer until it accepted it
+        ORDERING("ordering"),
+        // From the orderer accepting the transaction until its block event arrived
+        COMMIT("commit"),
+        // A READ function evaluated on a single peer, see PiClient.queryCC
+        QUERY("query");
+
+        private final String name;
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final String CSV_HEADER = "scope,name,phase,count,mean_ns,p50_ns,p90_ns,p99_ns,max_ns";
+
+    private final Map<CcFunction, Map<Phase, LatencyHistogram>> functions = new EnumMap<>(CcFunction.class);
+    private final ConcurrentHashMap<String, Map<Phase, LatencyHistogram>> peers = new ConcurrentHashMap<>();
+
+    ClientMetrics() {
+        for (CcFunction function : CcFunction.values()) {
+            functions.put(function, newPhases());
+        }
+    }
+
+    void record(CcFunction function, Phase phase, long startNanos) {
+        functions.get(function).get(phase).record(System.nanoTime() - startNanos);
+    }
+
+    // Records the phase for the function, and for the peer if it is known
+    void record(CcFunction function, String peerName, Phase phase, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        functions.get(function).get(phase).record(nanos);
+        if (peerName != null) {
+            peers.computeIfAbsent(peerName, name -> newPhases()).get(phase).record(nanos);
+        }
+    }
+
+    // One line per function or peer and phase that was recorded, with its percentiles in milliseconds
+    String summary() {
+        StringBuilder summary = new StringBuilder("Latency percentiles (p50/p90/p99/max ms):");
+        forEachRecorded((name, latency) -> {
+            summary.append("\n  ").append(name).append(": ").append(latency.getCount()).append(" x ");
+            for (double quantile : QUANTILES) {
+                summary.append(String.format("%.2f/", latency.getPercentileNanos(quantile) / 1e6));
+            }
+            summary.append(String.format("%.2f", latency.getMaxNanos() / 1e6));
+        });
+        return summary.toString();
+    }
+
+    // Writes <prefix>.csv and <prefix>.json
+    void export(String prefix) throws IOException {
+        StringBuilder csv = new StringBuilder(CSV_HEADER).append('\n');
+        appendCsv(csv, "function", sortedByName(functions));
+        appendCsv(csv, "peer", new TreeMap<>(peers));
+        Files.write(Paths.get(prefix + ".csv"), csv.toString().getBytes(UTF_8));
+        JSONObject json = new JSONObject()
+            .put("functions", toJson(sortedByName(functions)))
+            .put("peers", toJson(new TreeMap<>(peers)));
+        Files.write(Paths.get(prefix + ".json"), json.toString(2).getBytes(UTF_8));
+    }
+
+    private void forEachRecorded(BiConsumer<String, LatencyHistogram> action) {
+        BiConsumer<String, Map<Phase, LatencyHistogram>> recorded = (name, phases) ->
+            phases.forEach((phase, latency) -> {
+                if (latency.getCount() > 0) {
+                    action.accept(name + " " + phase.getName(), latency);
+                }
+            });
+        sortedByName(functions).forEach(recorded);
+        new TreeMap<>(peers).forEach((peer, phases) -> recorded.accept("peer " + peer, phases));
+    }
+
+    private static Map<String, Map<Phase, LatencyHistogram>> sortedByName(
+        Map<CcFunction, Map<Phase, LatencyHistogram>> byFunction) {
+        Map<String, Map<Phase, LatencyHistogram>> byName = new TreeMap<>();
+        byFunction.forEach((function, phases) -> byName.put(function.getName(), phases));
+        return byName;
+    }
+
+    private static void appendCsv(StringBuilder csv, String scope, Map<String, Map<Phase, LatencyHistogram>> rows) {
+        rows.forEach((name, phases) -> phases.forEach((phase, latency) -> {
+            long count = latency.getCount();
+            if (count > 0) {
+                csv.append(scope).append(',').append(name).append(',').append(phase.getName())
+                    .append(',').append(count)
+                    .append(',').append(latency.getTotalNanos() / count);
+                for (double quantile : QUANTILES) {
+                    csv.append(',').append(latency.getPercentileNanos(quantile));
+                }
+                csv.append(',').append(latency.getMaxNanos()).append('\n');
+            }
+        }));
+    }
+
+    // Names and phases without any recordings are left out
+    private static JSONObject toJson(Map<String, Map<Phase, LatencyHistogram>> rows) {
+        JSONObject json = new JSONObject();
+        rows.forEach((name, phases) -> {
+            JSONObject phasesJson = new JSONObject();
+            phases.forEach((phase, latency) -> {
+                long count = latency.getCount();
+                if (count > 0) {
+                    phasesJson.put(phase.getName(), new JSONObject()
+                        .put("count", count)
+                        .put("meanNanos", latency.getTotalNanos() / count)
+                        .put("p50Nanos", latency.getPercentileNanos(0.5))
+                        .put("p90Nanos", latency.getPercentileNanos(0.9))
+                        .put("p99Nanos", latency.getPercentileNanos(0.99))
+                        .put("maxNanos", latency.getMaxNanos()));
+                }
+            });
+            if (phasesJson.length() > 0) {
+                json.put(name, phasesJson);
+            }
+        });
+        return json;
+    }
+
+    private static Map<Phase, LatencyHistogram> newPhases() {
+        Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new LatencyHistogram());
+        }
+        return phases;
+    }
+}
@@ -0,0 +1,80 @@
+package client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A map from transaction IDs to what the client remembers about them, which forgets an entry once it is older than
+// the time to live, or once it is the oldest of more than maxSize entries. Old entries are dropped by the threads
+// that add new ones, so the map stays bounded without a cleanup thread however many transactions the channel sees.
+// Every method can be called from any thread without locking.
+class ExpiringTxMap<V> {
+
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    // Oldest first; may still hold entries that were removed or replaced, which are skipped when they are dropped
+    private final ConcurrentLinkedQueue<Entry<V>> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int maxSize;
+    private final long timeToLiveNanos;
+
+    private static class Entry<V> {
+        final String txId;
+        final V value;
+        final long insertedNanos;
+
+        Entry(String txId, V value, long insertedNanos) {
+            this.txId = txId;
+            this.value = value;
+            this.insertedNanos = insertedNanos;
+        }
+    }
+
+    ExpiringTxMap(int maxSize, long timeToLiveNanos) {
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = timeToLiveNanos;
+    }
+
+    void put(String txId, V value) {
+        Entry<V> entry = new Entry<>(txId, value, System.nanoTime());
+        entries.put(txId, entry);
+        append(entry);
+    }
+
+    // Returns the value that was already there, or null if the value was added
+    V putIfAbsent(String txId, V value) {
+        Entry<V> entry = new Entry<>(txId, value, System.nanoTime());
+        Entry<V> previous = entries.putIfAbsent(txId, entry);
+        if (previous != null) {
+            return previous.value;
+        }
+        append(entry);
+        return null;
+    }
+
+    V remove(String txId) {
+        Entry<V> entry = entries.remove(txId);
+        return entry == null ? null : entry.value;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void append(Entry<V> entry) {
+        insertionOrder.add(entry);
+        queued.incrementAndGet();
+        dropOldEntries(entry.insertedNanos);
+    }
+
+    private void dropOldEntries(long now) {
+        Entry<V> oldest;
+        while ((oldest = insertionOrder.peek()) != null
+            && (queued.get() > maxSize || now - oldest.insertedNanos > timeToLiveNanos)) {
+            // Another thread may have dropped it already
+            if (insertionOrder.remove(oldest)) {
+                queued.decrementAndGet();
+                entries.remove(oldest.txId, oldest);
+            }
+        }
+    }
+}
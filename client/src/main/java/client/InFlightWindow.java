@@ -0,0 +1,95 @@
+package client;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+// Keeps at most maxInFlight invocations in flight. A caller waits for a place in the window, so a fast caller cannot
+// overwhelm the network. The exception are the threads of threadFactory, which run the invocations and complete their
+// futures: an invocation started on one of them, e.g. from a callback on the future of another one, is queued instead
+// and starts as soon as a place frees up. Waiting there could leave no thread to free a place, and deadlock the client.
+class InFlightWindow {
+
+    private final Semaphore places;
+    // Invocations started on a window thread while the window was full, in order; guarded by this
+    private final Queue<Runnable> queued = new ArrayDeque<>();
+    private final ThreadLocal<Boolean> windowThread = ThreadLocal.withInitial(() -> false);
+
+    InFlightWindow(int maxInFlight) {
+        places = new Semaphore(maxInFlight);
+    }
+
+    // Makes the daemon threads that run the invocations
+    ThreadFactory threadFactory(String name) {
+        return runnable -> {
+            Thread thread = new Thread(() -> {
+                windowThread.set(true);
+                runnable.run();
+            }, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Starts the invocation once it has a place in the window; the place is freed when the invocation completes
+    <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> invocation) {
+        if (windowThread.get()) {
+            CompletableFuture<T> started = new CompletableFuture<>();
+            synchronized (this) {
+                if (!places.tryAcquire()) {
+                    queued.add(() -> pipe(run(invocation), started));
+                    return started;
+                }
+            }
+            return run(invocation);
+        }
+        try {
+            places.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            CompletableFuture<T> interrupted = new CompletableFuture<>();
+            interrupted.completeExceptionally(e);
+            return interrupted;
+        }
+        return run(invocation);
+    }
+
+    private <T> CompletableFuture<T> run(Supplier<CompletableFuture<T>> invocation) {
+        CompletableFuture<T> running;
+        try {
+            running = invocation.get();
+        } catch (RuntimeException e) {
+            running = new CompletableFuture<>();
+            running.completeExceptionally(e);
+        }
+        running.whenComplete((result, error) -> release());
+        return running;
+    }
+
+    private static <T> void pipe(CompletableFuture<T> from, CompletableFuture<T> to) {
+        from.whenComplete((result, error) -> {
+            if (error != null) {
+                to.completeExceptionally(error);
+            } else {
+                to.complete(result);
+            }
+        });
+    }
+
+    // A queued invocation takes over the place directly, so a waiting caller cannot take it first
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = queued.poll();
+            if (next == null) {
+                places.release();
+            }
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
+}
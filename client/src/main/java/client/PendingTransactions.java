@@ -0,0 +1,79 @@
+package client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.hyperledger.fabric.sdk.BlockEvent.TransactionEvent;
+
+// The transactions that were sent to the orderer and are waiting for their block event, by transaction ID.
+// Each one has a future that the block listener completes with the event of the transaction; a transaction
+// that is not seen in a block within the timeout completes exceptionally with a TimeoutException.
+// Waiting callers block on their own future, so nothing polls, and looking up a transaction is a hash map lookup.
+class PendingTransactions {
+
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timeouts;
+    private final long timeoutMillis;
+
+    private static class Pending {
+        final CompletableFuture<TransactionEvent> confirmation = new CompletableFuture<>();
+        volatile ScheduledFuture<?> timeout;
+    }
+
+    PendingTransactions(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        timeouts = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "tx-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Completed transactions cancel their timeout, which should not linger in the queue until it would have fired
+        timeouts.setRemoveOnCancelPolicy(true);
+    }
+
+    // Must be called before the transaction is sent, so its block event cannot arrive first
+    CompletableFuture<TransactionEvent> register(String txId) {
+        Pending transaction = new Pending();
+        Pending previous = pending.putIfAbsent(txId, transaction);
+        if (previous != null) {
+            return previous.confirmation;
+        }
+        transaction.timeout = timeouts.schedule(() -> expire(txId), timeoutMillis, TimeUnit.MILLISECONDS);
+        return transaction.confirmation;
+    }
+
+    // Returns whether the transaction was pending
+    boolean complete(String txId, TransactionEvent txEvent) {
+        Pending transaction = remove(txId);
+        return transaction != null && transaction.confirmation.complete(txEvent);
+    }
+
+    // For a transaction that will never be in a block, such as one the orderer refused
+    boolean fail(String txId, Throwable error) {
+        Pending transaction = remove(txId);
+        return transaction != null && transaction.confirmation.completeExceptionally(error);
+    }
+
+    int size() {
+        return pending.size();
+    }
+
+    private Pending remove(String txId) {
+        Pending transaction = pending.remove(txId);
+        if (transaction != null && transaction.timeout != null) {
+            transaction.timeout.cancel(false);
+        }
+        return transaction;
+    }
+
+    private void expire(String txId) {
+        Pending transaction = pending.remove(txId);
+        if (transaction != null) {
+            transaction.confirmation.completeExceptionally(
+                new TimeoutException("No block event for " + txId + " within " + timeoutMillis + " ms"));
+        }
+    }
+}
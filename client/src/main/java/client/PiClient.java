@@ -1,33 +1,47 @@
 package client;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static shared.GlobalConfig.Access;
 import static shared.GlobalConfig.COMPOSITE_EVENT;
+import static shared.GlobalConfig.COMPOSITE_EVENT_BINARY;
 import static shared.GlobalConfig.CcFunction;
+import static shared.GlobalConfig.MAX_BATCH_KEYS;
+import static shared.GlobalConfig.STORED_EGG_KEY_PREFIX;
 
 import client.user.UserContext;
 import client.util.Util;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Scanner;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
 import lombok.SneakyThrows;
 import org.apache.commons.io.FileUtils;
+import org.hyperledger.fabric.protos.peer.FabricTransaction.TxValidationCode;
 import org.hyperledger.fabric.sdk.BlockEvent;
 import org.hyperledger.fabric.sdk.ChaincodeEvent;
 import org.hyperledger.fabric.sdk.ChaincodeEventListener;
 import org.hyperledger.fabric.sdk.ChaincodeID;
+import org.hyperledger.fabric.sdk.ChaincodeResponse;
 import org.hyperledger.fabric.sdk.Channel;
 import org.hyperledger.fabric.sdk.HFClient;
 import org.hyperledger.fabric.sdk.NetworkConfig;
@@ -35,6 +49,8 @@ import org.hyperledger.fabric.sdk.NetworkConfig.CAInfo;
 import org.hyperledger.fabric.sdk.NetworkConfig.OrgInfo;
 import org.hyperledger.fabric.sdk.Peer;
 import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
+import org.hyperledger.fabric.sdk.SDKUtils;
 import org.hyperledger.fabric.sdk.TransactionProposalRequest;
 import org.hyperledger.fabric.sdk.TransactionRequest;
 import org.hyperledger.fabric.sdk.exception.BaseException;
@@ -45,6 +61,7 @@ import org.hyperledger.fabric_ca.sdk.HFCAClient;
 import org.hyperledger.fabric_ca.sdk.RegistrationRequest;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import shared.CompositeEvent;
 
 
 // The base class that all Clients inherit from.
@@ -52,13 +69,30 @@ public abstract class PiClient {
 
     public static final boolean LOG_TO_FILE = true;
     public static final int INVOCATION_TIMEOUT_S = 600;
+    // The default number of retries for most kinds of failure, see RetryPolicy
     public static final int N_INVOCATION_RETRIES = 3;
+    // The most transactions remembered in each of the maps below; they also forget transactions older than the timeout
+    public static final int MAX_TRACKED_TXS = 100_000;
+    // The default of the "max_in_flight" client setting, the number of invokeCCAsync calls that may run at once
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    // The default "window_ms" of the "write_coalescing" client setting, see invokeCCAsync
+    public static final long DEFAULT_COALESCING_WINDOW_MS = 10;
+    // Defaults of the "logfile_flush_interval_ms", "logfile_max_bytes" and "logfile_backups" client settings
+    public static final long DEFAULT_LOG_FLUSH_INTERVAL_MS = 200;
+    public static final long DEFAULT_LOG_MAX_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_LOG_BACKUPS = 3;
+    private static final int LOG_QUEUE_CAPACITY = 64 * 1024;
+    // The default of the "metrics_report_interval_s" client setting; 0 turns the periodic summary off
+    public static final long DEFAULT_METRICS_REPORT_INTERVAL_S = 60;
     private static final String ADMIN_NAME = "Admin";
     private final PrintStream out = System.out;
-    private final HashSet<String> receivedValidBlockEventTxIds = new HashSet<>();
-    private final HashSet<String> receivedInvalidBlockEventTxIds = new HashSet<>();
-    private final HashMap<String, Long> txSendTimes = new HashMap<>();
-    private final ConcurrentLinkedQueue<String> pendingTxs = new ConcurrentLinkedQueue<>();
+    private final ExpiringTxMap<Boolean> receivedValidBlockEventTxIds = newTxMap();
+    private final ExpiringTxMap<Boolean> receivedInvalidBlockEventTxIds = newTxMap();
+    // Sent transactions by ID, until their block event arrives
+    private final ExpiringTxMap<Long> txSendTimes = newTxMap();
+    private final PendingTransactions pendingTxs =
+        new PendingTransactions(TimeUnit.SECONDS.toMillis(INVOCATION_TIMEOUT_S));
+    private final ClientMetrics metrics = new ClientMetrics();
     protected JSONObject jo;
     protected OrgInfo orgInfo;
     private HFClient hfClient;
@@ -69,20 +103,18 @@ public abstract class PiClient {
     private String msp;
     private String currentNetworkId;
     private String logFileName;
+    private AsyncLogWriter logWriter;
+    private InFlightWindow inFlight;
+    private ExecutorService proposalExecutor;
+    private RetryPolicy retryPolicy;
+    private ScheduledExecutorService retryScheduler;
+    // null unless write coalescing is enabled
+    private WriteCoalescer writeCoalescer;
 
     protected PiClient(String jsonConfigFile) {
         setup(jsonConfigFile);
         setTxConfirmationListener();
-    }
-
-    private static void logToFile(String fileName, String contents) {
-        try {
-            PrintStream fileStream = new PrintStream(new FileOutputStream(fileName, true));
-            fileStream.append(contents).append('\n');
-            fileStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        setCompositeEventListener();
     }
 
     protected abstract void run();
@@ -93,6 +125,11 @@ public abstract class PiClient {
         jo = new JSONObject(FileUtils.readFileToString(jsonFile, "utf-8"));
         logFileName = jo.getString("logfile");
         emptyFile(logFileName);
+        logWriter = new AsyncLogWriter(logFileName,
+            jo.optLong("logfile_flush_interval_ms", DEFAULT_LOG_FLUSH_INTERVAL_MS),
+            jo.optLong("logfile_max_bytes", DEFAULT_LOG_MAX_BYTES),
+            jo.optInt("logfile_backups", DEFAULT_LOG_BACKUPS), LOG_QUEUE_CAPACITY);
+        Runtime.getRuntime().addShutdownHook(new Thread(logWriter::close, "log-writer-shutdown"));
         NetworkConfig nc = NetworkConfig.fromJsonFile(new File(jo.getString("connection_profile")));
         affiliation = jo.getString("affiliation");
         ccName = jo.getJSONObject("chaincode").getString("name");
@@ -113,6 +150,60 @@ public abstract class PiClient {
         String channelName = nc.getChannelNames().iterator().next();
         hfClient.loadChannelFromConfig(channelName, nc);
         channel = hfClient.getChannel(channelName);
+
+        int maxInFlight = jo.optInt("max_in_flight", DEFAULT_MAX_IN_FLIGHT);
+        inFlight = new InFlightWindow(maxInFlight);
+        // Sending a proposal blocks until the peers answer, so every invocation in flight may need a thread
+        proposalExecutor = Executors.newFixedThreadPool(maxInFlight, inFlight.threadFactory("proposals"));
+
+        retryPolicy = new RetryPolicy(jo.optJSONObject("retry"));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retries");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (retryPolicy.getFailures() > 0) {
+                p("Retries: " + retryPolicy.toJson());
+            }
+        }));
+
+        startMetricsReports(jo.optLong("metrics_report_interval_s", DEFAULT_METRICS_REPORT_INTERVAL_S),
+            jo.optString("metrics_export", logFileName + ".metrics"));
+
+        JSONObject coalescing = jo.optJSONObject("write_coalescing");
+        if (coalescing != null) {
+            // Not the retry scheduler: a flush may block on the in-flight window, which retries must be able to leave
+            ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "write-coalescing");
+                thread.setDaemon(true);
+                return thread;
+            });
+            writeCoalescer = new WriteCoalescer(coalescing.optLong("window_ms", DEFAULT_COALESCING_WINDOW_MS),
+                coalescing.optInt("max_keys", MAX_BATCH_KEYS), flushScheduler, this::submitTestVars);
+        }
+    }
+
+    // Prints a summary of the phase latencies every intervalSeconds, and writes them to <exportPrefix>.csv and
+    // <exportPrefix>.json when the client exits
+    private void startMetricsReports(long intervalSeconds, String exportPrefix) {
+        if (intervalSeconds > 0) {
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> p(metrics.summary()), intervalSeconds, intervalSeconds,
+                TimeUnit.SECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            p(metrics.summary());
+            try {
+                metrics.export(exportPrefix);
+            } catch (IOException e) {
+                p("Could not export the metrics to " + exportPrefix + ": " + e.getMessage());
+            }
+        }));
     }
 
     @SneakyThrows
@@ -200,13 +291,44 @@ public abstract class PiClient {
         channel.registerBlockListener(this::processBlockEvent);
     }
 
+    // Register a listener for the composite events of our chaincode, in either encoding. They are decoded on the
+    // SDK's event thread and handled on proposalExecutor, so a slow handler never holds up the block events.
+    @SneakyThrows
+    private void setCompositeEventListener() {
+        Pattern eventNames =
+            Pattern.compile(Pattern.quote(COMPOSITE_EVENT) + "|" + Pattern.quote(COMPOSITE_EVENT_BINARY));
+        channel.registerChaincodeEventListener(Pattern.compile(Pattern.quote(ccName)), eventNames,
+            this::receiveCompositeEvent);
+    }
+
+    private void receiveCompositeEvent(String handle, BlockEvent blockEvent, ChaincodeEvent chaincodeEvent) {
+        CompositeEvent event;
+        try {
+            event = CompositeEvent.decode(chaincodeEvent.getEventName(), chaincodeEvent.getPayload());
+        } catch (IllegalArgumentException e) {
+            proposalExecutor.execute(() -> p("Unreadable " + chaincodeEvent.getEventName() + " of transaction "
+                + chaincodeEvent.getTxId() + ": " + e.getMessage()));
+            return;
+        }
+        proposalExecutor.execute(() -> onCompositeEvent(event));
+    }
+
+    // Called with the composite event of every transaction that queued events.
+    // Clients that act on the events override this; by default, only events the chaincode had to drop are reported.
+    protected void onCompositeEvent(CompositeEvent event) {
+        if (event.getNDroppedEvents() > 0) {
+            p("Transaction " + event.getTxId() + " dropped " + event.getNDroppedEvents()
+                + " events that did not fit in its composite event");
+        }
+    }
+
     // Looks at the transactions that are stored in a block, and checks if any pending transactions are now finished.
     private void processBlockEvent(BlockEvent blockEvent) {
         for (BlockEvent.TransactionEvent txEvent : blockEvent.getTransactionEvents()) {
             String txId = txEvent.getTransactionID();
             // Check if we have processed it before, and add it to the right set.
             boolean isNew = txEvent.isValid() ? addValidBlockEvent(txId) : addInvalidBlockEvent(txId);
-            // If this event is about a pending transaction, we must mark it as done by removing it from the list (even if invalid)
+            // If this event is about a pending transaction, its caller is woken up (even if invalid)
             markAsDone(txEvent, txId);
             if (isNew) {
                 printResponseTime(txId);
@@ -214,41 +336,40 @@ public abstract class PiClient {
         }
     }
 
-    private synchronized boolean addInvalidBlockEvent(String txId) {
-        boolean isNew = !receivedInvalidBlockEventTxIds.contains(txId);
+    private boolean addInvalidBlockEvent(String txId) {
+        boolean isNew = receivedInvalidBlockEventTxIds.putIfAbsent(txId, true) == null;
         if (isNew) {
             p("Detected invalid transaction " + txId + "!");
-            receivedInvalidBlockEventTxIds.add(txId);
         }
         return isNew;
     }
 
-    private synchronized boolean addValidBlockEvent(String txId) {
-        boolean isNew = !receivedValidBlockEventTxIds.contains(txId);
-        if (isNew) {
-            receivedValidBlockEventTxIds.add(txId);
-        }
-        return isNew;
+    private boolean addValidBlockEvent(String txId) {
+        return receivedValidBlockEventTxIds.putIfAbsent(txId, true) == null;
     }
 
-    private synchronized void markAsDone(BlockEvent.TransactionEvent txEvent, String txId) {
-        if (pendingTxs.contains(txId)) {
+    private void markAsDone(BlockEvent.TransactionEvent txEvent, String txId) {
+        if (pendingTxs.complete(txId, txEvent)) {
             p("Pending transaction " + txId + " completed");
-            pendingTxs.remove(txEvent.getTransactionID());
         }
     }
 
-    private synchronized void printResponseTime(String txId) {
-        if (txSendTimes.containsKey(txId)) {
+    // The send time is forgotten once the response time is printed
+    private void printResponseTime(String txId) {
+        Long txSendTime = txSendTimes.remove(txId);
+        if (txSendTime != null) {
             long currentTime = System.nanoTime();
-            long txSendTime = txSendTimes.get(txId);
             p("Event response time for " + txId + " was " + (currentTime - txSendTime) + " nanoseconds!");
         }
     }
 
+    private static <V> ExpiringTxMap<V> newTxMap() {
+        return new ExpiringTxMap<>(MAX_TRACKED_TXS, TimeUnit.SECONDS.toNanos(INVOCATION_TIMEOUT_S));
+    }
+
     // Convenience wrappers for invokeCC
     protected String invokeCC(CcFunction function, String... args) {
-        return invokeCC(function, channel.getPeers(EnumSet.of(Peer.PeerRole.ENDORSING_PEER)), args);
+        return invokeCC(function, defaultPeers(function), args);
     }
 
     protected String invokeCC(CcFunction function, Collection<Peer> peers, String... args) {
@@ -259,48 +380,240 @@ public abstract class PiClient {
         return invokeCC(function, peers, nRetries, true, args);
     }
 
+    // Asynchronous invokeCC: endorses the invocation, sends it to the orderer and completes the future with the reply
+    // once the transaction is committed, without holding the calling thread. Like a blocking invokeCC, a failed or
+    // invalid transaction is retried as the RetryPolicy allows, without holding a thread during the backoff; the future
+    // fails once it gives up.
+    // READ functions are queried instead, and complete as soon as a peer answers.
+    // At most "max_in_flight" invocations run at once (DEFAULT_MAX_IN_FLIGHT if not set); when that many are
+    // in flight, this blocks until one of them completes, so a fast caller cannot overwhelm the network. Callbacks on
+    // the returned future, and onCompositeEvent, run on the threads that complete the invocations: called from there,
+    // this never blocks, and the invocation is queued until a place frees up (see InFlightWindow).
+    // With "write_coalescing": {"window_ms": 10, "max_keys": 1000} in the client settings, setTestVar calls are
+    // collected for up to window_ms, or until max_keys keys are waiting, and sent together as one batchSetTestVars
+    // transaction, keeping only the last value of each key. Each call still gets its own future.
+    protected CompletableFuture<String> invokeCCAsync(CcFunction function, String... args) {
+        if (writeCoalescer != null && function == CcFunction.SET_TEST_VAR && args.length == 2
+            && !args[0].startsWith(STORED_EGG_KEY_PREFIX)) {
+            return writeCoalescer.write(args[0], args[1]);
+        }
+        return invokeCCAsync(function, defaultPeers(function), args);
+    }
+
+    protected CompletableFuture<String> invokeCCAsync(CcFunction function, Collection<Peer> peers, String... args) {
+        return inFlight.<ProposalResponse>start(() -> function.getAccess() == Access.READ
+            ? CompletableFuture.supplyAsync(() -> queryCCOrFail(function, peers, args), proposalExecutor)
+            : invokeCCAsync(function, peers, N_INVOCATION_RETRIES, args))
+            .thenApply(ProposalResponse::getMessage);
+    }
+
+    // Sends the writes collected by the WriteCoalescer
+    private CompletableFuture<String> submitTestVars(Map<String, String> values) {
+        if (values.size() == 1) {
+            Map.Entry<String, String> value = values.entrySet().iterator().next();
+            return invokeCCAsync(CcFunction.SET_TEST_VAR, defaultPeers(CcFunction.SET_TEST_VAR), value.getKey(),
+                value.getValue());
+        }
+        return invokeCCAsync(CcFunction.BATCH_SET_TEST_VARS, defaultPeers(CcFunction.BATCH_SET_TEST_VARS),
+            new JSONObject(values).toString());
+    }
+
+    // A retry keeps the place in the window of the invocation it retries
+    private CompletableFuture<ProposalResponse> invokeCCAsync(CcFunction function, Collection<Peer> peers,
+        int nRetries, String... args) {
+        retryPolicy.startInvocation();
+        return attemptAsync(function, peers, 0, nRetries, args);
+    }
+
+    private CompletableFuture<ProposalResponse> attemptAsync(CcFunction function, Collection<Peer> peers,
+        int retries, int nRetries, String... args) {
+        String dump = dumpInvocation(function, args);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return sendProposal(function, peers, args);
+            } catch (InvalidArgumentException | ProposalException e) {
+                throw new CompletionException(e);
+            }
+        }, proposalExecutor)
+            .thenCompose(response -> submitTransaction(function, response))
+            // Not on the thread that completed the commit, which is the block listener's: nothing may hold it up
+            .handleAsync((response, error) -> {
+                if (error == null) {
+                    retryPolicy.recordSuccess(retries);
+                    return CompletableFuture.completedFuture(response);
+                }
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                long delayMillis = nextRetryDelay(dump, cause, retries, nRetries);
+                if (delayMillis < 0) {
+                    CompletableFuture<ProposalResponse> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(cause);
+                    return failed;
+                }
+                return afterDelay(delayMillis, () -> attemptAsync(function, peers, retries + 1, nRetries, args));
+            }, proposalExecutor)
+            .thenCompose(Function.identity());
+    }
+
+    private <T> CompletableFuture<T> afterDelay(long delayMillis, Supplier<CompletableFuture<T>> next) {
+        CompletableFuture<Void> delay = new CompletableFuture<>();
+        retryScheduler.schedule(() -> delay.complete(null), delayMillis, TimeUnit.MILLISECONDS);
+        return delay.thenCompose(ignored -> next.get());
+    }
+
+    // Asks the RetryPolicy whether to try again after the given failure; returns the delay, or -1 to give up
+    private long nextRetryDelay(String dump, Throwable error, int retries, int nRetries) {
+        RetryPolicy.FailureClass failureClass = RetryPolicy.classify(error);
+        long delayMillis = retryPolicy.nextDelayMillis(failureClass, retries, nRetries);
+        if (delayMillis < 0) {
+            p(dump + " failed (" + failureClass.getName() + ") after " + retries + " retries: " + error.getMessage());
+        } else {
+            p(dump + " failed (" + failureClass.getName() + "), retrying in " + delayMillis + " ms: "
+                + error.getMessage());
+        }
+        return delayMillis;
+    }
+
+    private ProposalResponse queryCCOrFail(CcFunction function, Collection<Peer> peers, String... args) {
+        ProposalResponse response = queryCCForResponse(function, peers, args);
+        if (response == null) {
+            String dump = dumpInvocation(function, args);
+            throw new CompletionException(new ProposalException(dump + " failed on every peer"));
+        }
+        return response;
+    }
+
+    // Perform a Chaincode invocation whose result is returned in the payload of the response instead of its
+    // message, such as binary data. Returns null if the invocation failed.
+    protected byte[] invokeCCForPayload(CcFunction function, String... args) {
+        String dump = dumpInvocation(function, args);
+        try {
+            Collection<Peer> peers = defaultPeers(function);
+            ProposalResponse response = invokeCCForResponse(function, peers, N_INVOCATION_RETRIES, true, args);
+            return response == null ? null : response.getChaincodeActionResponsePayload();
+        } catch (InvalidArgumentException e) {
+            p(dump + " failed because it was invalid!");
+            return null;
+        }
+    }
+
+    // Evaluate a Chaincode function on a single peer without submitting a transaction: nothing is ordered or committed,
+    // so this returns as soon as that peer answers, and only suits functions that do not write. invokeCC does this by
+    // itself for READ functions.
+    // Tries the next peer if one fails. Returns the message of the response, or null if every peer failed.
+    protected String queryCC(CcFunction function, String... args) {
+        return queryCC(function, channel.getPeers(EnumSet.of(Peer.PeerRole.CHAINCODE_QUERY)), args);
+    }
+
+    protected String queryCC(CcFunction function, Collection<Peer> peers, String... args) {
+        ProposalResponse response = queryCCForResponse(function, peers, args);
+        return response == null ? null : response.getMessage();
+    }
+
+    private ProposalResponse queryCCForResponse(CcFunction function, Collection<Peer> peers, String... args) {
+        long startTime = System.nanoTime();
+        String dump = dumpInvocation(function, args);
+        for (Peer peer : peers) {
+            try {
+                long buildStartTime = System.nanoTime();
+                QueryByChaincodeRequest request = makeQueryRequest(function, args);
+                metrics.record(function, ClientMetrics.Phase.BUILD_PROPOSAL, buildStartTime);
+                long queryStartTime = System.nanoTime();
+                ProposalResponse response = channel.queryByChaincode(request, Collections.singleton(peer)).iterator()
+                    .next();
+                metrics.record(function, peer.getName(), ClientMetrics.Phase.QUERY, queryStartTime);
+                if (response.getStatus() == ChaincodeResponse.Status.SUCCESS) {
+                    p("QUERY for " + dump + " on " + peer.getName() + " took " + (System.nanoTime() - startTime)
+                        + " nanoseconds!");
+                    return response;
+                }
+                p(dump + " failed on " + peer.getName() + ": " + response.getMessage());
+            } catch (InvalidArgumentException | ProposalException e) {
+                p(dump + " failed on " + peer.getName() + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
     // Perform a Chaincode invocation.
     // Args:
     //   - function: member of a custom enum in shared.GlobalConfig, make sure to register your own Chaincode functions there
     //   - peers: The set of peers to request endorsement from; you can probably leave this alone (ie. call this function without providing it),
     //         unless you want to limit the number of peers to enhance performance
-    //         DEFAULT: all endorsing peers in the channel.
-    //   - nRetries: The number of retries of this invocation, in case it fails.
+    //         For READ functions, the peers to query one by one until one of them answers.
+    //         DEFAULT: all endorsing peers in the channel, or all peers that can run queries for READ functions.
+    //   - nRetries: The most retries of this invocation, in case it fails. The RetryPolicy may give up sooner,
+    //         depending on the kind of failure, and waits a little before each retry.
     //         DEFAULT: N_INVOCATION_RETRIES
-    //   - blocking: If set to false, the function will return after obtaining endorsements. That means the invocation will not have been confirmed!
-    //         Additionally, no retries will be attempted if set to false (you could change the code to support this).
+    //   - blocking: If set to false, the function will return after sending the transaction to the orderer. That means the invocation will not have been confirmed!
+    //         Failed proposals and refused or inconsistent endorsements are still retried, but a transaction that turns out to be invalid is not.
     //         DEFAULT: true
     //   - args: The parameters for the Chaincode invocation
     // Returns:
     //   - The reply to the invocation
     private String invokeCC(CcFunction function, Collection<Peer> peers, int nRetries, boolean blocking,
         String... args) {
-        long startTime = System.nanoTime();
-        String dump = dumpInvocation(function, args);
-
         try {
-            TransactionProposalRequest request = makeInvocationRequest(function, args);
-            Collection<ProposalResponse> response = channel.sendTransactionProposal(request, peers);
-            long stopTime = System.nanoTime();
-            String txId = response.iterator().next().getTransactionID();
-            txSendTimes.put(txId, stopTime);
-            long timePassed = stopTime - startTime;
-            p("Sending PROPOSAL for " + dump + "(" + txId + ") took " + timePassed + " nanoseconds!");
-            return processProposalResponse(response, blocking);
-        } catch (ProposalException e) {
-            p(dump + " failed, key collision?  " + nRetries + " attempts to go!");
-            if (nRetries == 0) {
-                p(e.getMessage());
-                e.printStackTrace();
-                return "";
-            } else {
-                return invokeCC(function, peers, nRetries - 1, blocking, args);
-            }
+            ProposalResponse response = invokeCCForResponse(function, peers, nRetries, blocking, args);
+            return response == null ? "" : response.getMessage();
         } catch (InvalidArgumentException e) {
-            return dump + " failed because it was invalid!";
+            return dumpInvocation(function, args) + " failed because it was invalid!";
         }
     }
 
+    // Reads are answered by any single peer that can run queries, writes need all endorsing peers
+    private Collection<Peer> defaultPeers(CcFunction function) {
+        return channel.getPeers(EnumSet.of(
+            function.getAccess() == Access.READ ? Peer.PeerRole.CHAINCODE_QUERY : Peer.PeerRole.ENDORSING_PEER));
+    }
+
+    // Performs the invocation for invokeCC, returning the response of the last endorsing peer, or null if every
+    // attempt failed. READ functions are queried instead of submitted.
+    private ProposalResponse invokeCCForResponse(CcFunction function, Collection<Peer> peers, int nRetries,
+        boolean blocking, String... args) throws InvalidArgumentException {
+        if (function.getAccess() == Access.READ) {
+            return queryCCForResponse(function, peers, args);
+        }
+        String dump = dumpInvocation(function, args);
+        retryPolicy.startInvocation();
+        for (int retries = 0; ; retries++) {
+            try {
+                Collection<ProposalResponse> endorsements = sendProposal(function, peers, args);
+                ProposalResponse response = processProposalResponse(function, endorsements, blocking);
+                retryPolicy.recordSuccess(retries);
+                return response;
+            } catch (ProposalException e) {
+                long delayMillis = nextRetryDelay(dump, e, retries, nRetries);
+                if (delayMillis < 0) {
+                    e.printStackTrace();
+                    return null;
+                }
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+    }
+
+    private Collection<ProposalResponse> sendProposal(CcFunction function, Collection<Peer> peers, String... args)
+        throws InvalidArgumentException, ProposalException {
+        long buildStartTime = System.nanoTime();
+        TransactionProposalRequest request = makeInvocationRequest(function, args);
+        metrics.record(function, ClientMetrics.Phase.BUILD_PROPOSAL, buildStartTime);
+        long startTime = System.nanoTime();
+        Collection<ProposalResponse> response = channel.sendTransactionProposal(request, peers);
+        metrics.record(function, ClientMetrics.Phase.ENDORSEMENT, startTime);
+        long stopTime = System.nanoTime();
+        String txId = response.iterator().next().getTransactionID();
+        txSendTimes.put(txId, stopTime);
+        long timePassed = stopTime - startTime;
+        p("Sending PROPOSAL for " + dumpInvocation(function, args) + "(" + txId + ") took " + timePassed
+            + " nanoseconds!");
+        return response;
+    }
+
     private String dumpInvocation(CcFunction function, String... args) {
         return "invokeCC(" + function.getName() + ", " + String.join(", ", args) + ")";
     }
@@ -321,12 +634,59 @@ public abstract class PiClient {
         return request;
     }
 
-    private String processProposalResponse(Collection<ProposalResponse> response, boolean blocking)
-        throws ProposalException {
-        String result = null, txId = null;
+    private QueryByChaincodeRequest makeQueryRequest(CcFunction function, String[] args) {
+        QueryByChaincodeRequest request = hfClient.newQueryProposalRequest();
+        request.setChaincodeID(ChaincodeID.newBuilder().setName(ccName).build());
+        request.setProposalWaitTime(1000000);
+        request.setFcn(function.getName());
+        request.setArgs(args);
+        request.setChaincodeLanguage(TransactionRequest.Type.JAVA);
+        return request;
+    }
+
+    private ProposalResponse processProposalResponse(CcFunction function, Collection<ProposalResponse> response,
+        boolean blocking) throws ProposalException {
+        CompletableFuture<ProposalResponse> commit = submitTransaction(function, response);
+        // Refused or inconsistent endorsements fail the commit at once, so they are reported even without blocking
+        if (!blocking && !commit.isCompletedExceptionally()) {
+            return lastResponse(response);
+        }
+        // Wait until the block listener confirms the transaction, or the timeout expires
+        try {
+            return commit.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ProposalException) {
+                throw (ProposalException) e.getCause();
+            }
+            if (e.getCause() instanceof TimeoutException) {
+                throw new TransactionFailedException("Timeout reached without transaction confirmation!",
+                    RetryPolicy.FailureClass.TIMEOUT);
+            }
+            throw new ProposalException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProposalException("Interrupted while waiting for transaction confirmation!");
+        }
+    }
+
+    private static ProposalResponse lastResponse(Collection<ProposalResponse> response) {
+        ProposalResponse result = null;
+        for (ProposalResponse pres : response) {
+            result = pres;
+        }
+        return result;
+    }
+
+    // Sends the endorsed transaction to the orderer. The future completes with the response of the last endorsing
+    // peer once the transaction is committed, or fails with a TransactionFailedException if the endorsements were
+    // refused or disagreed, or the transaction was invalid, or with a TimeoutException if it was not seen in time.
+    private CompletableFuture<ProposalResponse> submitTransaction(CcFunction function,
+        Collection<ProposalResponse> response) {
+        ProposalResponse result = null;
+        String txId = null;
         // What do all of these peers think of this idea?
         for (ProposalResponse pres : response) {
-            result = pres.getMessage();
+            result = pres;
             txId = pres.getTransactionID();
             try {
                 pres.getChaincodeActionResponsePayload();
@@ -338,32 +698,67 @@ public abstract class PiClient {
                     "And transaction id: " + pres.getTransactionID());
             }
         }
+        // The orderer would accept these, but the transaction could never be valid
+        TransactionFailedException endorsementFailure = checkEndorsements(response);
+        if (endorsementFailure != null) {
+            txSendTimes.remove(txId);
+            CompletableFuture<ProposalResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(endorsementFailure);
+            return failed;
+        }
         // Send off to the ordering service!
-        pendingTxs.add(txId);
-        channel.sendTransaction(response);
-        long startWaitingTime = System.currentTimeMillis();
-        if (blocking) {
-            // Wait until the transaction gets confirmed
-            while (true) {
-                synchronized (pendingTxs) {
-                    if (!pendingTxs.contains(txId)) {
-                        break;
-                    }
-                }
-                long timeWaitedSeconds = (System.currentTimeMillis() - startWaitingTime) / 1000;
-                if (timeWaitedSeconds > INVOCATION_TIMEOUT_S) {
-                    throw new ProposalException("Timeout reached without transaction confirmation!");
-                }
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException ignored) {
-                }
+        String submittedTxId = txId;
+        CompletableFuture<BlockEvent.TransactionEvent> confirmation = pendingTxs.register(txId);
+        // The SDK returns once the orderer accepted the transaction; its future only completes on commit
+        long orderingStartTime = System.nanoTime();
+        channel.sendTransaction(response).whenComplete((event, error) -> {
+            // Also covers transactions the orderer refused, which would otherwise only fail after the timeout
+            if (error != null) {
+                pendingTxs.fail(submittedTxId, error);
             }
-            if (receivedInvalidBlockEventTxIds.contains(txId)) {
-                throw new ProposalException("Transaction returned as invalid!");
+        });
+        metrics.record(function, ClientMetrics.Phase.ORDERING, orderingStartTime);
+        long commitStartTime = System.nanoTime();
+        ProposalResponse committed = result;
+        return confirmation.thenApply(txEvent -> {
+            metrics.record(function, eventSource(txEvent), ClientMetrics.Phase.COMMIT, commitStartTime);
+            TxValidationCode validationCode = Optional.ofNullable(TxValidationCode.forNumber(
+                txEvent.getValidationCode())).orElse(TxValidationCode.INVALID_OTHER_REASON);
+            if (validationCode != TxValidationCode.VALID) {
+                throw new CompletionException(new TransactionFailedException(
+                    "Transaction returned as invalid! (" + validationCode + ")", RetryPolicy.classify(validationCode)));
             }
+            return committed;
+        });
+    }
+
+    // The peer or event hub that delivered the block event, if the SDK knows it
+    private static String eventSource(BlockEvent.TransactionEvent txEvent) {
+        if (txEvent.getPeer() != null) {
+            return txEvent.getPeer().getName();
         }
-        return result;
+        return txEvent.getEventHub() == null ? null : txEvent.getEventHub().getName();
+    }
+
+    // Returns null if every peer endorsed the transaction with the same result
+    private TransactionFailedException checkEndorsements(Collection<ProposalResponse> response) {
+        long refused = response.stream()
+            .filter(pres -> pres.getStatus() != ChaincodeResponse.Status.SUCCESS)
+            .count();
+        if (refused == response.size()) {
+            return new TransactionFailedException("Every peer refused the transaction proposal!",
+                RetryPolicy.FailureClass.PERMANENT);
+        }
+        try {
+            if (refused > 0 || SDKUtils.getProposalConsistencySets(response).size() > 1) {
+                return new TransactionFailedException("The peers endorsed the transaction proposal differently!",
+                    RetryPolicy.FailureClass.ENDORSEMENT_MISMATCH);
+            }
+        } catch (InvalidArgumentException e) {
+            return new TransactionFailedException("Unreadable endorsements: " + e.getMessage(),
+                RetryPolicy.FailureClass.ENDORSEMENT_MISMATCH);
+        }
+        return null;
     }
 
     public void p(Object o) {
@@ -387,7 +782,7 @@ public abstract class PiClient {
         }
 
         if (LOG_TO_FILE) {
-            logToFile(logFileName, output);
+            logWriter.append(output);
         }
     }
 }
@@ -0,0 +1,192 @@
+package client;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.hyperledger.fabric.protos.peer.FabricTransaction.TxValidationCode;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.json.JSONObject;
+
+// Decides whether a failed invocation is tried again, and after how long.
+// Failures are classified first: each FailureClass has its own number of retries and backoff, where the delay before
+// retry n is picked at random between 0 and baseDelay * 2^n (capped at maxDelay), so invocations that failed together
+// do not all come back at the same moment. On top of that, all invocations of the client share a retry budget: every
+// invocation adds budgetRatio of a retry to it, up to budgetReserve, and every retry takes one. When the network is
+// failing most invocations, the retries stop there instead of multiplying the load.
+//
+// Set in the client settings as, for example (every field is optional):
+//   "retry": {"budget_ratio": 0.2, "budget_reserve": 10,
+//             "conflict": {"max_retries": 3, "base_delay_ms": 100, "max_delay_ms": 2000}}
+// The classes are configured by their names below.
+class RetryPolicy {
+
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    enum FailureClass {
+        // Another transaction changed a key this one read, between endorsement and commit (MVCC or phantom read)
+        CONFLICT("conflict", PiClient.N_INVOCATION_RETRIES, 100, 2000),
+        // The endorsing peers disagreed or failed partly, or the endorsements did not satisfy the policy
+        ENDORSEMENT_MISMATCH("endorsement_mismatch", PiClient.N_INVOCATION_RETRIES, 100, 2000),
+        // The transaction was not seen in a block in time, or a peer did not answer in time. Retrying may run the
+        // invocation twice if the first one commits after all, so this is tried again only once by default
+        TIMEOUT("timeout", 1, 1000, 5000),
+        // Any other error from the peers or the orderer
+        TRANSIENT("transient", PiClient.N_INVOCATION_RETRIES, 200, 5000),
+        // The request was invalid or every peer refused it; trying again would give the same answer
+        PERMANENT("permanent", 0, 0, 0);
+
+        private final String name;
+        private final int defaultMaxRetries;
+        private final long defaultBaseDelayMillis;
+        private final long defaultMaxDelayMillis;
+    }
+
+    enum Outcome {
+        RETRIED, NOT_RETRYABLE, RETRIES_EXHAUSTED, BUDGET_EXHAUSTED
+    }
+
+    static final double DEFAULT_BUDGET_RATIO = 0.2;
+    static final int DEFAULT_BUDGET_RESERVE = 10;
+    // The budget is kept in thousandths of a retry
+    private static final long MILLI_RETRY = 1000;
+
+    private final Map<FailureClass, Backoff> backoffs = new EnumMap<>(FailureClass.class);
+    private final Map<FailureClass, Map<Outcome, LongAdder>> outcomes = new EnumMap<>(FailureClass.class);
+    private final LongAdder succeededAfterRetry = new LongAdder();
+    private final long budgetDeposit;
+    private final long budgetCapacity;
+    private final AtomicLong budget;
+
+    private static class Backoff {
+        final int maxRetries;
+        final long baseDelayMillis;
+        final long maxDelayMillis;
+
+        Backoff(FailureClass failureClass, JSONObject settings) {
+            maxRetries = settings.optInt("max_retries", failureClass.getDefaultMaxRetries());
+            baseDelayMillis = settings.optLong("base_delay_ms", failureClass.getDefaultBaseDelayMillis());
+            maxDelayMillis = settings.optLong("max_delay_ms", failureClass.getDefaultMaxDelayMillis());
+        }
+    }
+
+    // settings may be null, for the defaults
+    RetryPolicy(JSONObject settings) {
+        JSONObject retrySettings = settings == null ? new JSONObject() : settings;
+        for (FailureClass failureClass : FailureClass.values()) {
+            JSONObject classSettings = retrySettings.optJSONObject(failureClass.getName());
+            backoffs.put(failureClass, new Backoff(failureClass, classSettings == null ? new JSONObject()
+                : classSettings));
+            Map<Outcome, LongAdder> counters = new EnumMap<>(Outcome.class);
+            for (Outcome outcome : Outcome.values()) {
+                counters.put(outcome, new LongAdder());
+            }
+            outcomes.put(failureClass, counters);
+        }
+        budgetDeposit = Math.round(retrySettings.optDouble("budget_ratio", DEFAULT_BUDGET_RATIO) * MILLI_RETRY);
+        budgetCapacity = retrySettings.optInt("budget_reserve", DEFAULT_BUDGET_RESERVE) * MILLI_RETRY;
+        budget = new AtomicLong(budgetCapacity);
+    }
+
+    static FailureClass classify(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransactionFailedException) {
+                return ((TransactionFailedException) cause).getFailureClass();
+            }
+            if (cause instanceof InvalidArgumentException) {
+                return FailureClass.PERMANENT;
+            }
+            if (cause instanceof TimeoutException) {
+                return FailureClass.TIMEOUT;
+            }
+        }
+        return FailureClass.TRANSIENT;
+    }
+
+    static FailureClass classify(TxValidationCode validationCode) {
+        switch (validationCode) {
+            case MVCC_READ_CONFLICT:
+            case PHANTOM_READ_CONFLICT:
+                return FailureClass.CONFLICT;
+            case ENDORSEMENT_POLICY_FAILURE:
+                return FailureClass.ENDORSEMENT_MISMATCH;
+            default:
+                return FailureClass.PERMANENT;
+        }
+    }
+
+    // Called once per invocation, before its first attempt
+    void startInvocation() {
+        budget.getAndUpdate(current -> Math.min(budgetCapacity, current + budgetDeposit));
+    }
+
+    // Returns how long to wait before trying again after a failure, or -1 to give up. retries is the number of retries
+    // made so far, and maxRetries a limit of the caller on top of the one of the failure class.
+    long nextDelayMillis(FailureClass failureClass, int retries, int maxRetries) {
+        Backoff backoff = backoffs.get(failureClass);
+        if (failureClass == FailureClass.PERMANENT) {
+            return giveUp(failureClass, Outcome.NOT_RETRYABLE);
+        }
+        if (retries >= Math.min(backoff.maxRetries, maxRetries)) {
+            return giveUp(failureClass, Outcome.RETRIES_EXHAUSTED);
+        }
+        if (!withdrawRetry()) {
+            return giveUp(failureClass, Outcome.BUDGET_EXHAUSTED);
+        }
+        outcomes.get(failureClass).get(Outcome.RETRIED).increment();
+        long ceiling = Math.min(backoff.maxDelayMillis, backoff.baseDelayMillis << Math.min(retries, 30));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    void recordSuccess(int retries) {
+        if (retries > 0) {
+            succeededAfterRetry.increment();
+        }
+    }
+
+    long getFailures() {
+        return outcomes.values().stream().flatMap(counters -> counters.values().stream())
+            .mapToLong(LongAdder::sum).sum();
+    }
+
+    // Failure classes that never occurred are left out
+    JSONObject toJson() {
+        JSONObject failures = new JSONObject();
+        outcomes.forEach((failureClass, counters) -> {
+            JSONObject counts = new JSONObject();
+            counters.forEach((outcome, count) -> {
+                if (count.sum() > 0) {
+                    counts.put(outcome.name().toLowerCase(), count.sum());
+                }
+            });
+            if (counts.length() > 0) {
+                failures.put(failureClass.getName(), counts);
+            }
+        });
+        return new JSONObject()
+            .put("failures", failures)
+            .put("succeededAfterRetry", succeededAfterRetry.sum())
+            .put("budget", (double) budget.get() / MILLI_RETRY);
+    }
+
+    private long giveUp(FailureClass failureClass, Outcome outcome) {
+        outcomes.get(failureClass).get(outcome).increment();
+        return -1;
+    }
+
+    private boolean withdrawRetry() {
+        long current;
+        do {
+            current = budget.get();
+            if (current < MILLI_RETRY) {
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - MILLI_RETRY));
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package client;
+
+import lombok.Getter;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+
+// A failed transaction whose cause the client already knows, so RetryPolicy need not guess it
+class TransactionFailedException extends ProposalException {
+
+    @Getter
+    private final RetryPolicy.FailureClass failureClass;
+
+    TransactionFailedException(String message, RetryPolicy.FailureClass failureClass) {
+        super(message);
+        this.failureClass = failureClass;
+    }
+}
@@ -0,0 +1,117 @@
+package client;
+
+import static shared.GlobalConfig.MAX_BATCH_ARG_LENGTH;
+import static shared.GlobalConfig.MAX_BATCH_KEYS;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.json.JSONObject;
+
+// Collects test variable writes for up to windowMillis, or until maxKeys keys are waiting, and submits them together.
+// A later write to a key replaces the waiting one, so only the last value of each key is sent. Every caller gets its
+// own future, which completes with the result of the transaction that carried its write (or the write replacing it).
+// The batch also never grows past what batchSetTestVars accepts.
+class WriteCoalescer {
+
+    private final long windowMillis;
+    private final int maxKeys;
+    private final ScheduledExecutorService scheduler;
+    // Submits a batch of writes, key to value; called outside the lock
+    private final Function<Map<String, String>, CompletableFuture<String>> submitBatch;
+
+    private Map<String, String> values = new HashMap<>();
+    private List<CompletableFuture<String>> waiters = new ArrayList<>();
+    // The length of the values as a JSON object
+    private long batchChars = 2;
+    private ScheduledFuture<?> flushTimer;
+
+    WriteCoalescer(long windowMillis, int maxKeys, ScheduledExecutorService scheduler,
+        Function<Map<String, String>, CompletableFuture<String>> submitBatch) {
+        this.windowMillis = windowMillis;
+        this.maxKeys = Math.min(maxKeys, MAX_BATCH_KEYS);
+        this.scheduler = scheduler;
+        this.submitBatch = submitBatch;
+    }
+
+    CompletableFuture<String> write(String key, String value) {
+        CompletableFuture<String> written = new CompletableFuture<>();
+        List<Batch> full = new ArrayList<>(2);
+        synchronized (this) {
+            long entryChars = JSONObject.quote(key).length() + JSONObject.quote(value).length() + 2;
+            if (!values.containsKey(key) && batchChars + entryChars > MAX_BATCH_ARG_LENGTH) {
+                full.add(takeBatch());
+            }
+            String previous = values.put(key, value);
+            if (previous != null) {
+                batchChars -= JSONObject.quote(key).length() + JSONObject.quote(previous).length() + 2;
+            }
+            batchChars += entryChars;
+            waiters.add(written);
+            if (values.size() >= maxKeys) {
+                full.add(takeBatch());
+            } else if (flushTimer == null) {
+                flushTimer = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        full.forEach(Batch::submit);
+        return written;
+    }
+
+    // Submits the waiting writes now
+    void flush() {
+        Batch batch;
+        synchronized (this) {
+            batch = takeBatch();
+        }
+        batch.submit();
+    }
+
+    private Batch takeBatch() {
+        Batch batch = new Batch(values, waiters);
+        values = new HashMap<>();
+        waiters = new ArrayList<>();
+        batchChars = 2;
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+        return batch;
+    }
+
+    private class Batch {
+        final Map<String, String> values;
+        final List<CompletableFuture<String>> waiters;
+
+        Batch(Map<String, String> values, List<CompletableFuture<String>> waiters) {
+            this.values = values;
+            this.waiters = waiters;
+        }
+
+        void submit() {
+            if (values.isEmpty()) {
+                return;
+            }
+            CompletableFuture<String> submitted;
+            try {
+                submitted = submitBatch.apply(values);
+            } catch (RuntimeException e) {
+                submitted = new CompletableFuture<>();
+                submitted.completeExceptionally(e);
+            }
+            submitted.whenComplete((result, error) -> waiters.forEach(waiter -> {
+                if (error != null) {
+                    waiter.completeExceptionally(error);
+                } else {
+                    waiter.complete(result);
+                }
+            }));
+        }
+    }
+}
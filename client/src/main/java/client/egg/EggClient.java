@@ -1,9 +1,18 @@
 package client.egg;
 
 import client.PiClient;
+import java.util.Optional;
+import org.json.JSONObject;
 import shared.GlobalConfig.CcFunction;
+import shared.GlobalConfig.EggEncoding;
 
 public class EggClient extends PiClient {
+    // Set "egg_source" to "stored" in the client settings to read the egg stored on the ledger,
+    // instead of having a peer render it
+    private static final String EGG_SOURCE_SETTING = "egg_source";
+    private static final String STORED_EGG_SOURCE = "stored";
+    private static final EggEncoding STORED_EGG_ENCODING = EggEncoding.RUN_LENGTH;
+
     private EggClient(String clientSettingsFile) throws Exception {
         super(clientSettingsFile);
         initChannel();
@@ -11,10 +20,34 @@ public class EggClient extends PiClient {
 
     @Override
     protected void run() {
-        System.out.println(invokeCC(CcFunction.GET_EGG));
+        boolean useStoredEgg = STORED_EGG_SOURCE.equals(jo.optString(EGG_SOURCE_SETTING));
+        long startTime = System.nanoTime();
+        JSONObject storedEgg = useStoredEgg ? queryStoredEgg() : null;
+        String egg = useStoredEgg ? Optional.ofNullable(storedEgg).map(e -> e.getString("egg")).orElse(null)
+            : getEggFrame();
+        p("Getting the egg took " + (System.nanoTime() - startTime) + " nanoseconds!");
+        if (egg != null) {
+            System.out.println(egg);
+        }
+        // Only the first run submits a transaction, to store the egg for the runs after it
+        if (storedEgg != null && !storedEgg.getBoolean("stored")) {
+            p("Stored egg " + invokeCC(CcFunction.STORE_EGG, STORED_EGG_ENCODING.getName()));
+        }
         new SogetiLogoDrawer().printSogetiLogo();
     }
 
+    // getEggFrame is a READ function, so a single peer renders the egg and no transaction is submitted
+    private String getEggFrame() {
+        byte[] eggFrame = invokeCCForPayload(CcFunction.GET_EGG_FRAME);
+        return eggFrame == null ? null : EggFrameDecoder.toAnsi(eggFrame);
+    }
+
+    // A single peer reads the stored egg, or renders it if it was not stored yet
+    private JSONObject queryStoredEgg() {
+        String response = queryCC(CcFunction.GET_STORED_EGG, STORED_EGG_ENCODING.getName());
+        return response == null ? null : new JSONObject(response);
+    }
+
     public static void main(String[] args) throws Exception {
         new EggClient(args.length == 0 ? "client_settings.json" : args[0]).run();
     }
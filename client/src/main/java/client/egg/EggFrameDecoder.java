@@ -0,0 +1,27 @@
+package client.egg;
+
+import shared.EggFrame;
+
+// Turns the binary egg returned by getEggFrame back into colored terminal output.
+public class EggFrameDecoder {
+    private static final String RESET = "\u001b[0m";
+
+    public static String toAnsi(byte[] frameBytes) {
+        EggFrame frame = EggFrame.decode(frameBytes);
+        StringBuilder builder = new StringBuilder((frame.getWidth() + 16) * frame.getHeight());
+        for (int yCoordinate = 0; yCoordinate < frame.getHeight(); yCoordinate++) {
+            int currentIndex = -1;
+            for (int xCoordinate = 0; xCoordinate < frame.getWidth(); xCoordinate++) {
+                int paletteIndex = frame.getPixel(xCoordinate, yCoordinate);
+                // Only switch colors where they change within a row
+                if (paletteIndex != currentIndex) {
+                    builder.append("\u001b[0;").append(frame.getPaletteCode(paletteIndex)).append('m');
+                    currentIndex = paletteIndex;
+                }
+                builder.append(' ');
+            }
+            builder.append(RESET).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,147 @@
+package shared;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * The composite event of a transaction, as read by the clients: every event the chaincode queued, in order, and the
+ * number of events that were dropped at the end because they did not fit within the chaincode's size cap.
+ *
+ * The chaincode writes it in either EventEncoding, and the name of the Fabric event tells which one:
+ *
+ * JSON, sent as COMPOSITE_EVENT:
+ *   {"txId":"...","txTimestamp":123,"events":[{"<name>":<contents>},...],"droppedEvents":2}
+ * droppedEvents is only written when events were dropped.
+ *
+ * Binary, sent as COMPOSITE_EVENT_BINARY, multi-byte values are big-endian and strings are UTF-8:
+ *   byte   BINARY_VERSION
+ *   short  txId length (unsigned), followed by the txId
+ *   long   txTimestamp
+ *   int    number of events n
+ *   int    number of dropped events
+ *   n      events, each a short name length (unsigned), the name, an int contents length and the contents as JSON
+ */
+public final class CompositeEvent {
+
+    public static final int BINARY_VERSION = 1;
+
+    private final String txId;
+    private final long txTimestamp;
+    private final List<Event> events;
+    private final int nDroppedEvents;
+
+    public CompositeEvent(String txId, long txTimestamp, List<Event> events, int nDroppedEvents) {
+        this.txId = txId;
+        this.txTimestamp = txTimestamp;
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+        this.nDroppedEvents = nDroppedEvents;
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public long getTxTimestamp() {
+        return txTimestamp;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    public int getNDroppedEvents() {
+        return nDroppedEvents;
+    }
+
+    // A single queued event; contentsJson is a complete JSON value
+    public static final class Event {
+        private final String name;
+        private final String contentsJson;
+
+        public Event(String name, String contentsJson) {
+            this.name = name;
+            this.contentsJson = contentsJson;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getContentsJson() {
+            return contentsJson;
+        }
+    }
+
+    // eventName is the name the Fabric event was set with, which selects the encoding of the payload
+    public static CompositeEvent decode(String eventName, byte[] payload) {
+        if (GlobalConfig.EventEncoding.fromEventName(eventName) == GlobalConfig.EventEncoding.JSON) {
+            return decodeJson(payload);
+        }
+        return decodeBinary(payload);
+    }
+
+    private static CompositeEvent decodeJson(byte[] payload) {
+        try {
+            JSONObject json = new JSONObject(new String(payload, UTF_8));
+            JSONArray jsonEvents = json.getJSONArray("events");
+            List<Event> events = new ArrayList<>(jsonEvents.length());
+            for (int i = 0; i < jsonEvents.length(); i++) {
+                JSONObject jsonEvent = jsonEvents.getJSONObject(i);
+                if (jsonEvent.length() != 1) {
+                    throw new IllegalArgumentException("Composite event entry " + i + " must hold a single event");
+                }
+                String name = jsonEvent.keys().next();
+                events.add(new Event(name, JSONObject.valueToString(jsonEvent.get(name))));
+            }
+            return new CompositeEvent(json.getString("txId"), json.getLong("txTimestamp"), events,
+                json.optInt("droppedEvents", 0));
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Malformed composite event: " + e.getMessage(), e);
+        }
+    }
+
+    private static CompositeEvent decodeBinary(byte[] payload) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            int version = buffer.get();
+            if (version != BINARY_VERSION) {
+                throw new IllegalArgumentException("Unsupported composite event version " + version);
+            }
+            String txId = readUtf8(buffer, buffer.getShort() & 0xFFFF);
+            long txTimestamp = buffer.getLong();
+            int nEvents = buffer.getInt();
+            int nDroppedEvents = buffer.getInt();
+            if (nEvents < 0 || nDroppedEvents < 0) {
+                throw new IllegalArgumentException("Invalid composite event counts " + nEvents + "/" + nDroppedEvents);
+            }
+            List<Event> events = new ArrayList<>(Math.min(nEvents, buffer.remaining()));
+            for (int i = 0; i < nEvents; i++) {
+                String name = readUtf8(buffer, buffer.getShort() & 0xFFFF);
+                events.add(new Event(name, readUtf8(buffer, buffer.getInt())));
+            }
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes after the last composite event entry");
+            }
+            return new CompositeEvent(txId, txTimestamp, events, nDroppedEvents);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated composite event", e);
+        }
+    }
+
+    private static String readUtf8(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Truncated composite event");
+        }
+        String value = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,101 @@
+package client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ExpiringTxMapTest {
+
+    private static final long HOUR_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    public void oldestEntryShouldBeDroppedPastMaxSize() {
+        ExpiringTxMap<Long> txMap = new ExpiringTxMap<>(3, HOUR_NANOS);
+        for (long i = 1; i <= 4; i++) {
+            txMap.put("tx" + i, i);
+        }
+        assertThat(txMap.size()).isEqualTo(3);
+        assertThat(txMap.remove("tx1")).isNull();
+        assertThat(txMap.remove("tx4")).isEqualTo(4);
+    }
+
+    @Test
+    public void entryShouldExpireAfterTheTimeToLive() throws InterruptedException {
+        ExpiringTxMap<Long> txMap = new ExpiringTxMap<>(100, TimeUnit.MILLISECONDS.toNanos(20));
+        txMap.put("tx1", 1L);
+        Thread.sleep(50);
+        // Expired entries are dropped by the next write
+        txMap.put("tx2", 2L);
+        assertThat(txMap.size()).isEqualTo(1);
+        assertThat(txMap.remove("tx1")).isNull();
+        assertThat(txMap.remove("tx2")).isEqualTo(2);
+    }
+
+    @Test
+    public void confirmedTransactionShouldBeRemoved() {
+        ExpiringTxMap<Long> txMap = new ExpiringTxMap<>(100, HOUR_NANOS);
+        txMap.put("tx1", 1L);
+        assertThat(txMap.remove("tx1")).isEqualTo(1);
+        assertThat(txMap.remove("tx1")).isNull();
+        assertThat(txMap.size()).isZero();
+    }
+
+    @Test
+    public void putIfAbsentShouldKeepTheFirstValue() {
+        ExpiringTxMap<Long> txMap = new ExpiringTxMap<>(100, HOUR_NANOS);
+        assertThat(txMap.putIfAbsent("tx1", 1L)).isNull();
+        assertThat(txMap.putIfAbsent("tx1", 2L)).isEqualTo(1);
+        assertThat(txMap.remove("tx1")).isEqualTo(1);
+    }
+
+    @Test
+    public void replacedEntryShouldNotBeDroppedWithTheValueItReplaced() {
+        ExpiringTxMap<Long> txMap = new ExpiringTxMap<>(2, HOUR_NANOS);
+        txMap.put("tx1", 1L);
+        txMap.put("tx1", 2L);
+        txMap.put("tx2", 3L);
+        assertThat(txMap.remove("tx1")).isEqualTo(2);
+    }
+
+    // Every transaction is tracked, most are confirmed and the rest are never heard of again; however many there are,
+    // the map holds no more than maxSize of them
+    @Test
+    public void sizeShouldStayFlatUnderManyTransactions() throws Exception {
+        int maxSize = 1000;
+        int nThreads = 4;
+        int nTransactionsPerThread = 50_000;
+        ExpiringTxMap<Long> txMap = new ExpiringTxMap<>(maxSize, HOUR_NANOS);
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<Integer>> largestSizes = new ArrayList<>();
+            for (int t = 0; t < nThreads; t++) {
+                String prefix = "thread" + t + "-tx";
+                largestSizes.add(executor.submit(() -> {
+                    int largestSize = 0;
+                    for (int i = 0; i < nTransactionsPerThread; i++) {
+                        String txId = prefix + i;
+                        txMap.put(txId, System.nanoTime());
+                        if (i % 10 != 0) {
+                            txMap.remove(txId);
+                        }
+                        largestSize = Math.max(largestSize, txMap.size());
+                    }
+                    return largestSize;
+                }));
+            }
+            for (Future<Integer> largestSize : largestSizes) {
+                // Each writer may see the entries the others added but did not drop yet
+                assertThat(largestSize.get(1, TimeUnit.MINUTES)).isLessThanOrEqualTo(maxSize + nThreads);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(txMap.size()).isLessThanOrEqualTo(maxSize);
+    }
+}
@@ -0,0 +1,83 @@
+package client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+
+public class InFlightWindowTest {
+
+    private final InFlightWindow window = new InFlightWindow(1);
+    private final ExecutorService windowExecutor = Executors.newSingleThreadExecutor(window.threadFactory("test"));
+
+    @After
+    public void tearDown() {
+        windowExecutor.shutdownNow();
+    }
+
+    @Test
+    public void callerShouldWaitForAPlace() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        window.start(() -> first);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        Thread caller = new Thread(() -> window.start(() -> {
+            secondStarted.countDown();
+            return new CompletableFuture<String>();
+        }));
+        caller.start();
+
+        assertThat(secondStarted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+        first.complete("committed");
+        assertThat(secondStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        caller.join(5000);
+    }
+
+    @Test
+    public void fullWindowShouldQueueInsteadOfBlockingAWindowThread() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        window.start(() -> first);
+        AtomicBoolean secondStarted = new AtomicBoolean();
+        CompletableFuture<String> second = new CompletableFuture<>();
+
+        // What a callback on the future of an invocation does: start another one from a window thread
+        CompletableFuture<String> queued = windowExecutor.submit(() -> window.start(() -> {
+            secondStarted.set(true);
+            return second;
+        })).get(5, TimeUnit.SECONDS);
+        assertThat(secondStarted).isFalse();
+
+        first.complete("committed");
+        assertThat(secondStarted).isTrue();
+        assertThat(queued).isNotDone();
+        second.complete("also committed");
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("also committed");
+    }
+
+    @Test
+    public void callbackShouldStartAnInvocationWhenTheWindowIsFull() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> chained = window.start(() -> first)
+            .thenComposeAsync(result -> window.start(() -> CompletableFuture.completedFuture(result + " twice")),
+                windowExecutor);
+
+        first.complete("committed");
+        assertThat(chained.get(5, TimeUnit.SECONDS)).isEqualTo("committed twice");
+    }
+
+    @Test
+    public void failedStartShouldFreeItsPlace() throws Exception {
+        CompletableFuture<String> failed = window.start(() -> {
+            throw new IllegalStateException("no peers");
+        });
+        assertThat(failed).isCompletedExceptionally();
+        CompletableFuture<String> next = windowExecutor.submit(() -> window.start(() ->
+            CompletableFuture.completedFuture("committed"))).get(5, TimeUnit.SECONDS);
+        assertThat(next.get(5, TimeUnit.SECONDS)).isEqualTo("committed");
+    }
+}
@@ -0,0 +1,150 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A ScheduledExecutorService whose one-shot tasks only run when the test advances its clock
+final class ManualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private final List<Task> tasks = new ArrayList<>();
+    private long nowNanos;
+
+    // Runs every task that is due within the given time, in the order they are due
+    synchronized void advance(long time, TimeUnit unit) {
+        nowNanos += unit.toNanos(time);
+        List<Task> due = new ArrayList<>();
+        for (Task task : tasks) {
+            if (task.dueNanos <= nowNanos) {
+                due.add(task);
+            }
+        }
+        tasks.removeAll(due);
+        Collections.sort(due);
+        due.forEach(Task::run);
+    }
+
+    // The tasks that are scheduled and neither ran nor were cancelled
+    synchronized int pending() {
+        return tasks.size();
+    }
+
+    @Override
+    public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        Task task = new Task(command, nowNanos + unit.toNanos(delay));
+        tasks.add(task);
+        return task;
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        command.run();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return true;
+    }
+
+    private final class Task implements ScheduledFuture<Object>, Comparable<Delayed> {
+        private final Runnable command;
+        private final long dueNanos;
+        private boolean done;
+        private boolean cancelled;
+
+        Task(Runnable command, long dueNanos) {
+            this.command = command;
+            this.dueNanos = dueNanos;
+        }
+
+        void run() {
+            done = true;
+            command.run();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            synchronized (ManualScheduler.this) {
+                return unit.convert(dueNanos - nowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (ManualScheduler.this) {
+                if (done) {
+                    return false;
+                }
+                done = true;
+                cancelled = true;
+                tasks.remove(this);
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public Object get() {
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+}
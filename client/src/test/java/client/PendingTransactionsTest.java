@@ -0,0 +1,71 @@
+package client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.hyperledger.fabric.sdk.BlockEvent.TransactionEvent;
+import org.junit.Test;
+
+public class PendingTransactionsTest {
+
+    private final PendingTransactions pendingTxs = new PendingTransactions(TimeUnit.HOURS.toMillis(1));
+    private final TransactionEvent txEvent = mock(TransactionEvent.class);
+
+    @Test
+    public void blockEventShouldCompleteTheTransaction() throws Exception {
+        CompletableFuture<TransactionEvent> confirmation = pendingTxs.register("tx1");
+        assertThat(confirmation).isNotDone();
+
+        assertThat(pendingTxs.complete("tx1", txEvent)).isTrue();
+        assertThat(confirmation.get(0, TimeUnit.SECONDS)).isSameAs(txEvent);
+        assertThat(pendingTxs.size()).isZero();
+        assertThat(pendingTxs.complete("tx1", txEvent)).isFalse();
+    }
+
+    @Test
+    public void blockEventOfAnotherClientShouldBeIgnored() {
+        assertThat(pendingTxs.complete("tx1", txEvent)).isFalse();
+        assertThat(pendingTxs.size()).isZero();
+    }
+
+    @Test
+    public void registeringTwiceShouldReturnTheSameFuture() {
+        assertThat(pendingTxs.register("tx1")).isSameAs(pendingTxs.register("tx1"));
+        assertThat(pendingTxs.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void refusedTransactionShouldFail() {
+        CompletableFuture<TransactionEvent> confirmation = pendingTxs.register("tx1");
+        assertThat(pendingTxs.fail("tx1", new IllegalStateException("refused by the orderer"))).isTrue();
+        assertThat(confirmation).isCompletedExceptionally();
+        assertThat(pendingTxs.size()).isZero();
+    }
+
+    @Test
+    public void transactionWithoutBlockEventShouldTimeOut() {
+        PendingTransactions shortTimeout = new PendingTransactions(20);
+        CompletableFuture<TransactionEvent> confirmation = shortTimeout.register("tx1");
+
+        assertThatThrownBy(() -> confirmation.get(5, TimeUnit.SECONDS))
+            .isInstanceOf(ExecutionException.class)
+            .hasCauseInstanceOf(TimeoutException.class);
+        assertThat(shortTimeout.size()).isZero();
+        // A block event that arrives after the timeout finds nothing to complete
+        assertThat(shortTimeout.complete("tx1", txEvent)).isFalse();
+    }
+
+    @Test
+    public void confirmedTransactionShouldNotTimeOut() throws Exception {
+        PendingTransactions shortTimeout = new PendingTransactions(20);
+        CompletableFuture<TransactionEvent> confirmation = shortTimeout.register("tx1");
+        shortTimeout.complete("tx1", txEvent);
+        Thread.sleep(50);
+        assertThat(confirmation.get(0, TimeUnit.SECONDS)).isSameAs(txEvent);
+    }
+}
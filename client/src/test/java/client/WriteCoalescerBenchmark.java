@@ -0,0 +1,94 @@
+package client;
+
+import static client.PiClient.DEFAULT_MAX_IN_FLIGHT;
+import static shared.GlobalConfig.MAX_BATCH_KEYS;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * setTestVar calls per second through a WriteCoalescer, at several window_ms values. The submit is a stub standing in
+ * for PiClient.submitTestVars: it takes a place in an in-flight window of DEFAULT_MAX_IN_FLIGHT transactions, blocking
+ * while the window is full, and completes TX_LATENCY_MS later, whatever the number of keys it carries. window_ms 0 is
+ * the client without "write_coalescing", which submits every write as its own transaction.
+ *
+ * Run with org.openjdk.jmh.Main on the test classpath, e.g.
+ *   java -cp target/test-classes:target/classes:<dependencies> org.openjdk.jmh.Main WriteCoalescerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class WriteCoalescerBenchmark {
+
+    private static final int N_KEYS = 100_000;
+    // The endorsement, ordering and commit of a transaction
+    private static final long TX_LATENCY_MS = 20;
+
+    @Param({"0", "1", "10", "50"})
+    public long windowMillis;
+
+    private ScheduledExecutorService flushScheduler;
+    private ScheduledExecutorService network;
+    private Semaphore inFlight;
+    private WriteCoalescer writeCoalescer;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        flushScheduler = Executors.newSingleThreadScheduledExecutor();
+        network = Executors.newSingleThreadScheduledExecutor();
+        inFlight = new Semaphore(DEFAULT_MAX_IN_FLIGHT);
+        writeCoalescer = new WriteCoalescer(windowMillis, MAX_BATCH_KEYS, flushScheduler, this::submit);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        // The network lets the transactions in flight complete, so no flush stays blocked on the window
+        flushScheduler.shutdown();
+        network.shutdown();
+    }
+
+    private CompletableFuture<String> submit(Map<String, String> values) {
+        inFlight.acquireUninterruptibly();
+        CompletableFuture<String> committed = new CompletableFuture<>();
+        network.schedule(() -> {
+            inFlight.release();
+            committed.complete("committed");
+        }, TX_LATENCY_MS, TimeUnit.MILLISECONDS);
+        return committed;
+    }
+
+    @Benchmark
+    public CompletableFuture<String> setTestVar() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = "train" + random.nextInt(N_KEYS);
+        String value = "v" + random.nextInt();
+        if (windowMillis == 0) {
+            return submit(Collections.singletonMap(key, value));
+        }
+        return writeCoalescer.write(key, value);
+    }
+}
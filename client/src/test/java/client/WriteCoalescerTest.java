@@ -0,0 +1,141 @@
+package client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static shared.GlobalConfig.MAX_BATCH_ARG_LENGTH;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteCoalescerTest {
+
+    private static final long WINDOW_MILLIS = 10;
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    // Every batch that was submitted, and the future it was answered with
+    private final List<Map<String, String>> batches = new ArrayList<>();
+    private final List<CompletableFuture<String>> submitted = new ArrayList<>();
+    private WriteCoalescer writeCoalescer;
+
+    @Before
+    public void setup() {
+        writeCoalescer = newWriteCoalescer(1000);
+    }
+
+    private WriteCoalescer newWriteCoalescer(int maxKeys) {
+        return new WriteCoalescer(WINDOW_MILLIS, maxKeys, scheduler, values -> {
+            batches.add(new HashMap<>(values));
+            CompletableFuture<String> result = new CompletableFuture<>();
+            submitted.add(result);
+            return result;
+        });
+    }
+
+    private static String repeat(char c, int count) {
+        return new String(new char[count]).replace('\0', c);
+    }
+
+    @Test
+    public void writesShouldWaitForTheWindow() {
+        writeCoalescer.write("redDevil", "1");
+        scheduler.advance(WINDOW_MILLIS - 1, TimeUnit.MILLISECONDS);
+        assertThat(batches).isEmpty();
+        scheduler.advance(1, TimeUnit.MILLISECONDS);
+        assertThat(batches).hasSize(1);
+        assertThat(scheduler.pending()).isZero();
+    }
+
+    @Test
+    public void lastWriteShouldWinPerKey() {
+        CompletableFuture<String> first = writeCoalescer.write("redDevil", "1");
+        CompletableFuture<String> other = writeCoalescer.write("blueArrow", "2");
+        CompletableFuture<String> last = writeCoalescer.write("redDevil", "3");
+        scheduler.advance(WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).containsOnly(entry("redDevil", "3"), entry("blueArrow", "2"));
+        submitted.get(0).complete("committed");
+        assertThat(first.join()).isEqualTo("committed");
+        assertThat(other.join()).isEqualTo("committed");
+        assertThat(last.join()).isEqualTo("committed");
+    }
+
+    @Test
+    public void everyCallerShouldGetTheResultOfItsOwnBatch() {
+        CompletableFuture<String> inFirst = writeCoalescer.write("redDevil", "1");
+        scheduler.advance(WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        CompletableFuture<String> inSecond = writeCoalescer.write("redDevil", "2");
+        scheduler.advance(WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        assertThat(batches).hasSize(2);
+
+        submitted.get(1).completeExceptionally(new IllegalStateException("invalid"));
+        assertThat(inFirst).isNotDone();
+        assertThat(inSecond).isCompletedExceptionally();
+        submitted.get(0).complete("committed");
+        assertThat(inFirst.join()).isEqualTo("committed");
+    }
+
+    @Test
+    public void failingSubmitShouldFailEveryWaiter() {
+        WriteCoalescer failing = new WriteCoalescer(WINDOW_MILLIS, 1000, scheduler, values -> {
+            throw new IllegalStateException("no peers");
+        });
+        CompletableFuture<String> first = failing.write("redDevil", "1");
+        CompletableFuture<String> second = failing.write("blueArrow", "2");
+        scheduler.advance(WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        assertThat(first).isCompletedExceptionally();
+        assertThat(second).isCompletedExceptionally();
+    }
+
+    @Test
+    public void maxKeysShouldFlushWithoutWaiting() {
+        WriteCoalescer small = newWriteCoalescer(3);
+        small.write("a", "1");
+        small.write("b", "2");
+        assertThat(batches).isEmpty();
+        small.write("c", "3");
+
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).containsOnlyKeys("a", "b", "c");
+        // The window timer of the batch was cancelled, so it cannot flush the next batch early
+        assertThat(scheduler.pending()).isZero();
+        small.write("d", "4");
+        assertThat(scheduler.pending()).isEqualTo(1);
+    }
+
+    @Test
+    public void batchShouldBeSplitBeforeItExceedsMaxArgLength() {
+        String value = repeat('x', MAX_BATCH_ARG_LENGTH / 3);
+        writeCoalescer.write("a", value);
+        writeCoalescer.write("b", value);
+        assertThat(batches).isEmpty();
+        writeCoalescer.write("c", value);
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).containsOnlyKeys("a", "b");
+        scheduler.advance(WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+
+        assertThat(batches).hasSize(2);
+        assertThat(batches.get(1)).containsOnlyKeys("c");
+        for (Map<String, String> batch : batches) {
+            assertThat(new JSONObject(batch).toString().length()).isLessThanOrEqualTo(MAX_BATCH_ARG_LENGTH);
+        }
+    }
+
+    @Test
+    public void replacingAValueShouldNotSplitTheBatch() {
+        String value = repeat('x', MAX_BATCH_ARG_LENGTH / 3);
+        writeCoalescer.write("a", value);
+        writeCoalescer.write("b", value);
+        writeCoalescer.write("a", value);
+        writeCoalescer.write("b", value);
+        scheduler.advance(WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        assertThat(batches).hasSize(1);
+    }
+}